@@ -0,0 +1,73 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.BYTES;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.COUNT;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.LABEL_PREFIX;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.NOTES;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.STATISTIC;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.TOTALS;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.TYPE_PREFIX;
+
+public class NoteStatistics {
+    private long notes;
+    private long bytes;
+    private Map<String, Long> types = new LinkedHashMap<>();
+    private Map<String, Long> labels = new LinkedHashMap<>();
+
+    public long getNotes() {
+        return notes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Map<String, Long> getTypes() {
+        return types;
+    }
+
+    public Map<String, Long> getLabels() {
+        return labels;
+    }
+
+    /**
+     * @param items all statistics items of a single user
+     */
+    public final static NoteStatistics fromItems(Iterable<Item> items) {
+        NoteStatistics statistics = new NoteStatistics();
+        Map<String, Long> labels = new LinkedHashMap<>();
+        for (Item item : items) {
+            final String statistic = item.getString(STATISTIC);
+            if (TOTALS.equals(statistic)) {
+                statistics.readTotals(item);
+            } else if (statistic.startsWith(LABEL_PREFIX) && item.hasAttribute(COUNT) && item.getLong(COUNT) > 0) {
+                labels.put(statistic.substring(LABEL_PREFIX.length()), item.getLong(COUNT));
+            }
+        }
+        // most popular labels first
+        labels.entrySet()
+                .stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(label -> statistics.labels.put(label.getKey(), label.getValue()));
+        return statistics;
+    }
+
+    private void readTotals(Item item) {
+        for (Map.Entry<String, Object> attribute : item.attributes()) {
+            final String name = attribute.getKey();
+            if (NOTES.equals(name)) {
+                notes = item.getLong(name);
+            } else if (BYTES.equals(name)) {
+                bytes = item.getLong(name);
+            } else if (name.startsWith(TYPE_PREFIX) && item.getLong(name) > 0) {
+                types.put(name.substring(TYPE_PREFIX.length()), item.getLong(name));
+            }
+        }
+    }
+
+}
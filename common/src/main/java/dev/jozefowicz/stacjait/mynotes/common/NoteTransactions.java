@@ -0,0 +1,124 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Writes of a note together with the statistics they change, in a single DynamoDB transaction.
+ */
+public final class NoteTransactions {
+
+    /**
+     * Items DynamoDB accepts in a single transaction.
+     */
+    public static final int MAX_ITEMS = 100;
+
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    private static final String TRANSACTION_CONFLICT = "TransactionConflict";
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 20;
+
+    private NoteTransactions() {
+    }
+
+    public static Map<String, AttributeValue> key(String userId, String noteId) {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("userId", new AttributeValue().withS(userId));
+        key.put("noteId", new AttributeValue().withS(noteId));
+        return key;
+    }
+
+    /**
+     * @return put of a new note, failing if a note with the same id already exists
+     */
+    public static TransactWriteItem create(String tableName, Map<String, AttributeValue> note) {
+        return new TransactWriteItem().withPut(new Put()
+                .withTableName(tableName)
+                .withItem(note)
+                .withConditionExpression("attribute_not_exists(noteId)"));
+    }
+
+    /**
+     * Condition of a write that the note still exists in {@code expectedVersion}, registering used names and values.
+     */
+    public static String versionCondition(long expectedVersion, Map<String, String> names, Map<String, AttributeValue> values) {
+        names.put("#version", "version");
+        if (expectedVersion == 0) {
+            // notes stored before versioning was introduced have no version attribute
+            names.put("#noteId", "noteId");
+            return "attribute_exists(#noteId) AND attribute_not_exists(#version)";
+        }
+        values.put(":expectedVersion", new AttributeValue().withN(Long.toString(expectedVersion)));
+        return "#version = :expectedVersion";
+    }
+
+    /**
+     * Writes the note and the statistics update atomically. Transactions of one user contend on the totals item,
+     * so transactions cancelled only because of such a conflict are retried.
+     *
+     * @throws TransactionCanceledException when a condition is not met or conflicts persist
+     */
+    public static void write(AmazonDynamoDB amazonDynamoDB, TransactWriteItem noteWrite, StatisticsUpdate statisticsUpdate,
+                             String statisticsTableName, String userId) {
+        final List<TransactWriteItem> items = new ArrayList<>();
+        items.add(noteWrite);
+        items.addAll(statisticsUpdate.transactWriteItems(statisticsTableName, userId));
+        final TransactWriteItemsRequest request = new TransactWriteItemsRequest().withTransactItems(items);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                amazonDynamoDB.transactWriteItems(request);
+                return;
+            } catch (TransactionCanceledException e) {
+                if (!conflictOnly(e) || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * @return whether the transaction was cancelled because the condition of the note write, always its first item, failed
+     */
+    public static boolean noteConditionFailed(TransactionCanceledException e) {
+        final List<CancellationReason> reasons = e.getCancellationReasons();
+        return nonNull(reasons) && !reasons.isEmpty() && CONDITIONAL_CHECK_FAILED.equals(reasons.get(0).getCode());
+    }
+
+    private static boolean conflictOnly(TransactionCanceledException e) {
+        if (e.getCancellationReasons() == null) {
+            return false;
+        }
+        boolean conflict = false;
+        for (CancellationReason reason : e.getCancellationReasons()) {
+            if (TRANSACTION_CONFLICT.equals(reason.getCode())) {
+                conflict = true;
+            } else if (nonNull(reason.getCode()) && !"None".equals(reason.getCode())) {
+                return false;
+            }
+        }
+        return conflict;
+    }
+
+    static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS << attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
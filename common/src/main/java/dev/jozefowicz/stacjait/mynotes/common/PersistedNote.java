@@ -3,6 +3,8 @@ package dev.jozefowicz.stacjait.mynotes.common;
 import java.util.List;
 import java.util.UUID;
 
+import static java.util.Objects.nonNull;
+
 public class PersistedNote {
     private String userId;
     private String noteId;
@@ -13,6 +15,7 @@ public class PersistedNote {
     private Long size;
     private List<String> labels;
     private String s3Location;
+    private long version;
 
     public String getNoteId() {
         return noteId;
@@ -50,15 +53,44 @@ public class PersistedNote {
         return s3Location;
     }
 
-    public static final PersistedNote updated(String userId, String noteId, String title, String text, List<String> labels) {
+    /**
+     * Incremented on every update, {@code 0} for notes stored before versioning was introduced.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Attributes changed by an update of a note which currently is in {@code version - 1},
+     * {@code null} for attributes which are left as they are.
+     */
+    public static final PersistedNote updated(String userId, String noteId, String title, String text, List<String> labels, long version) {
         PersistedNote note = new PersistedNote();
         note.userId = userId;
         note.noteId = noteId;
         note.labels = labels;
-        note.type = NoteType.TEXT;
         note.title = title;
         note.text = text;
         note.timestamp = System.currentTimeMillis();
+        note.version = version;
+        return note;
+    }
+
+    /**
+     * Note as stored after {@code updated} attributes have been written over {@code previous} one.
+     */
+    public static final PersistedNote applied(PersistedNote previous, PersistedNote updated) {
+        PersistedNote note = new PersistedNote();
+        note.userId = previous.userId;
+        note.noteId = previous.noteId;
+        note.type = previous.type;
+        note.size = previous.size;
+        note.s3Location = previous.s3Location;
+        note.labels = nonNull(updated.labels) ? updated.labels : previous.labels;
+        note.title = nonNull(updated.title) ? updated.title : previous.title;
+        note.text = nonNull(updated.text) ? updated.text : previous.text;
+        note.timestamp = updated.timestamp;
+        note.version = updated.version;
         return note;
     }
 
@@ -71,6 +103,7 @@ public class PersistedNote {
         note.title = title;
         note.text = text;
         note.timestamp = System.currentTimeMillis();
+        note.version = 1;
         return note;
     }
 
@@ -84,6 +117,7 @@ public class PersistedNote {
         note.size = size;
         note.s3Location = s3Location;
         note.timestamp = System.currentTimeMillis();
+        note.version = 1;
         return note;
     }
 
@@ -13,6 +13,7 @@ public class ResponseNote {
     private NoteType type;
     private Long size;
     private List<String> labels;
+    private long version;
 
     public String getNoteId() {
         return noteId;
@@ -42,6 +43,10 @@ public class ResponseNote {
         return labels;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public final static ResponseNote fromPersistedNote(PersistedNote persistedNote) {
         ResponseNote note = new ResponseNote();
         note.labels = persistedNote.getLabels();
@@ -51,6 +56,7 @@ public class ResponseNote {
         note.timestamp = persistedNote.getTimestamp();
         note.size = persistedNote.getSize();
         note.type = persistedNote.getType();
+        note.version = persistedNote.getVersion();
         return note;
     }
 
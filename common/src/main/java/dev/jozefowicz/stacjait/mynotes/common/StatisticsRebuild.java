@@ -0,0 +1,298 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.COUNT;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.INITIALIZED;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.LABEL_PREFIX;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.REVISION;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.STATISTIC;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.TOTALS;
+import static dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate.USER_ID;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Recomputes the statistics items of a user from all of the user's notes, replacing whatever has been counted before.
+ * Used for users whose notes were stored before statistics were maintained.
+ * <p>
+ * The rebuild reads the revision of the totals item before reading the notes. Every write of label items is a
+ * transaction checking the revision is unchanged, the last one writes the totals. A note written in between has
+ * changed the revision, so the rebuild can neither overwrite its counts nor miss it, it starts over instead.
+ * Rebuilds of one user are serialized by a lease item, so concurrent requests wait for a single rebuild.
+ */
+public class StatisticsRebuild {
+
+    private static final String LEASE = "rebuild";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES = "expires";
+    private static final long LEASE_MILLIS = 60_000;
+    private static final long MAX_WAIT_MILLIS = 10_000;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final Table myNotesTable;
+    private final Table statisticsTable;
+    private final String statisticsTableName;
+
+    public StatisticsRebuild(AmazonDynamoDB amazonDynamoDB, String tableName, String statisticsTableName) {
+        final DynamoDB dynamoDB = new DynamoDB(amazonDynamoDB);
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.myNotesTable = dynamoDB.getTable(tableName);
+        this.statisticsTable = dynamoDB.getTable(statisticsTableName);
+        this.statisticsTableName = statisticsTableName;
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    /**
+     * @param items statistics items of a single user
+     * @return whether the items count all notes of the user
+     */
+    public static boolean initialized(Iterable<Item> items) {
+        for (Item item : items) {
+            if (TOTALS.equals(item.getString(STATISTIC))) {
+                return item.hasAttribute(INITIALIZED);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the statistics of the user unless they are initialized already, waiting for a rebuild in progress.
+     */
+    public void initialize(String userId) throws IOException {
+        run(userId, false);
+    }
+
+    /**
+     * Rebuilds the statistics of the user even if they are initialized, waiting for a rebuild in progress.
+     */
+    public void rebuild(String userId) throws IOException {
+        run(userId, true);
+    }
+
+    private void run(String userId, boolean replaceInitialized) throws IOException {
+        final String owner = UUID.randomUUID().toString();
+        final long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        for (int attempt = 1; !acquire(userId, owner); attempt++) {
+            if (!replaceInitialized && initialized(totals(userId))) {
+                // rebuilt by the holder of the lease meanwhile
+                return;
+            } else if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Statistics of user " + userId + " are being rebuilt by another request");
+            }
+            NoteTransactions.backoff(Math.min(attempt, 4));
+        }
+        try {
+            Item totals = totals(userId);
+            if (initialized(totals)) {
+                if (!replaceInitialized) {
+                    return;
+                }
+                // counts are not served while they are being replaced
+                statisticsTable.updateItem(new UpdateItemSpec()
+                        .withPrimaryKey(totalsKey(userId))
+                        .withUpdateExpression("REMOVE #initialized")
+                        .withNameMap(new NameMap().with("#initialized", INITIALIZED)));
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    rebuild(userId, revision(totals));
+                    return;
+                } catch (TransactionCanceledException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    NoteTransactions.backoff(Math.min(attempt, 4));
+                    totals = totals(userId);
+                }
+            }
+        } finally {
+            release(userId, owner);
+        }
+    }
+
+    private void rebuild(String userId, long revision) throws IOException {
+        final StatisticsUpdate counts = StatisticsUpdate.of(notes(userId));
+
+        final List<TransactWriteItem> writes = new ArrayList<>();
+        final Map<String, Long> stored = storedLabels(userId);
+        // labels no longer used by any note are removed, so stale items do not pile up
+        for (String label : stored.keySet()) {
+            if (!counts.getLabels().containsKey(label)) {
+                writes.add(new TransactWriteItem().withDelete(new Delete()
+                        .withTableName(statisticsTableName)
+                        .withKey(StatisticsUpdate.key(userId, LABEL_PREFIX + label))));
+            }
+        }
+        for (Map.Entry<String, Long> label : counts.getLabels().entrySet()) {
+            if (!label.getValue().equals(stored.get(label.getKey()))) {
+                final Map<String, AttributeValue> item = StatisticsUpdate.key(userId, LABEL_PREFIX + label.getKey());
+                item.put(COUNT, new AttributeValue().withN(Long.toString(label.getValue())));
+                writes.add(new TransactWriteItem().withPut(new Put().withTableName(statisticsTableName).withItem(item)));
+            }
+        }
+
+        final Map<String, AttributeValue> totals = StatisticsUpdate.key(userId, TOTALS);
+        totals.put(REVISION, new AttributeValue().withN(Long.toString(revision + 1)));
+        totals.put(INITIALIZED, new AttributeValue().withBOOL(true));
+        counts.getTotals().forEach((name, count) -> totals.put(name, new AttributeValue().withN(Long.toString(count))));
+        final Map<String, String> names = Collections.singletonMap("#revision", REVISION);
+        final Map<String, AttributeValue> values = revision == 0
+                ? null
+                : Collections.singletonMap(":revision", new AttributeValue().withN(Long.toString(revision)));
+        final String condition = revision == 0 ? "attribute_not_exists(#revision)" : "#revision = :revision";
+
+        // a transaction cannot write the totals item and check it at the same time, so the last one writes it
+        int from = 0;
+        do {
+            final int to = Math.min(from + NoteTransactions.MAX_ITEMS - 1, writes.size());
+            final List<TransactWriteItem> items = new ArrayList<>(writes.subList(from, to));
+            if (to == writes.size()) {
+                items.add(new TransactWriteItem().withPut(new Put()
+                        .withTableName(statisticsTableName)
+                        .withItem(totals)
+                        .withConditionExpression(condition)
+                        .withExpressionAttributeNames(names)
+                        .withExpressionAttributeValues(values)));
+            } else {
+                items.add(new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                        .withTableName(statisticsTableName)
+                        .withKey(StatisticsUpdate.key(userId, TOTALS))
+                        .withConditionExpression(condition)
+                        .withExpressionAttributeNames(names)
+                        .withExpressionAttributeValues(values)));
+            }
+            amazonDynamoDB.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+            from = to;
+        } while (from < writes.size());
+    }
+
+    /**
+     * @return whether the lease on rebuilding the user's statistics has been taken, possibly over from a rebuild
+     * which has not released it in time
+     */
+    private boolean acquire(String userId, String owner) {
+        try {
+            statisticsTable.putItem(lease(userId, owner).withConditionExpression("attribute_not_exists(#owner)"));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            // held by another rebuild
+        }
+        final Item lease = statisticsTable.getItem(new GetItemSpec()
+                .withPrimaryKey(USER_ID, userId, STATISTIC, LEASE)
+                .withConsistentRead(true));
+        if (isNull(lease) || lease.getLong(EXPIRES) > System.currentTimeMillis()) {
+            return false;
+        }
+        try {
+            statisticsTable.putItem(lease(userId, owner)
+                    .withConditionExpression("#owner = :expired")
+                    .withValueMap(new ValueMap().withString(":expired", lease.getString(OWNER))));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private static PutItemSpec lease(String userId, String owner) {
+        return new PutItemSpec()
+                .withItem(new Item()
+                        .withPrimaryKey(USER_ID, userId, STATISTIC, LEASE)
+                        .withString(OWNER, owner)
+                        .withLong(EXPIRES, System.currentTimeMillis() + LEASE_MILLIS))
+                .withNameMap(new NameMap().with("#owner", OWNER));
+    }
+
+    private void release(String userId, String owner) {
+        try {
+            statisticsTable.deleteItem(new DeleteItemSpec()
+                    .withPrimaryKey(USER_ID, userId, STATISTIC, LEASE)
+                    .withConditionExpression("#owner = :owner")
+                    .withNameMap(new NameMap().with("#owner", OWNER))
+                    .withValueMap(new ValueMap().withString(":owner", owner)));
+        } catch (ConditionalCheckFailedException e) {
+            // taken over after it expired
+        }
+    }
+
+    private Item totals(String userId) {
+        return statisticsTable.getItem(new GetItemSpec()
+                .withPrimaryKey(totalsKey(userId))
+                .withConsistentRead(true));
+    }
+
+    private static PrimaryKey totalsKey(String userId) {
+        return new PrimaryKey(USER_ID, userId, STATISTIC, TOTALS);
+    }
+
+    private static boolean initialized(Item totals) {
+        return nonNull(totals) && totals.hasAttribute(INITIALIZED);
+    }
+
+    private static long revision(Item totals) {
+        return isNull(totals) || !totals.hasAttribute(REVISION) ? 0 : totals.getLong(REVISION);
+    }
+
+    private Map<String, Long> storedLabels(String userId) {
+        final Map<String, Long> labels = new HashMap<>();
+        for (Item item : statisticsTable.query(byUser(userId).withConsistentRead(true))) {
+            final String statistic = item.getString(STATISTIC);
+            if (statistic.startsWith(LABEL_PREFIX)) {
+                labels.put(statistic.substring(LABEL_PREFIX.length()), item.hasAttribute(COUNT) ? item.getLong(COUNT) : 0);
+            }
+        }
+        return labels;
+    }
+
+    private List<PersistedNote> notes(String userId) throws IOException {
+        final QuerySpec querySpec = byUser(userId)
+                .withConsistentRead(true)
+                // the text of notes is not needed to count them
+                .withProjectionExpression("#type, #size, #labels")
+                .withNameMap(new NameMap().with("#type", "type").with("#size", "size").with("#labels", "labels"));
+        final List<PersistedNote> notes = new ArrayList<>();
+        for (Item item : myNotesTable.query(querySpec)) {
+            notes.add(this.objectMapper.readValue(item.toJSON(), PersistedNote.class));
+        }
+        return notes;
+    }
+
+    private static QuerySpec byUser(String userId) {
+        return new QuerySpec()
+                .withKeyConditionExpression("userId = :userId")
+                .withValueMap(new ValueMap().withString(":userId", userId));
+    }
+
+}
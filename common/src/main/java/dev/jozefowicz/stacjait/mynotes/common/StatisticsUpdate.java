@@ -0,0 +1,161 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.Update;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Difference between two versions of a note expressed as counters of the per-user statistics items.
+ * Totals live in a single {@link #TOTALS} item, every label is counted in its own {@code label#<name>} item,
+ * so the number of distinct labels never grows a single item towards the DynamoDB item size limit.
+ */
+public final class StatisticsUpdate {
+
+    public static final String USER_ID = "userId";
+    public static final String STATISTIC = "statistic";
+    public static final String TOTALS = "totals";
+    public static final String LABEL_PREFIX = "label#";
+    public static final String COUNT = "count";
+    public static final String NOTES = "notes";
+    public static final String BYTES = "bytes";
+    public static final String TYPE_PREFIX = "type:";
+    /**
+     * Attribute of the totals item counting all writes of the user's statistics, so a rebuild can detect concurrent writes.
+     */
+    public static final String REVISION = "revision";
+    /**
+     * Attribute of the totals item set once the statistics have been rebuilt from all notes of the user.
+     */
+    public static final String INITIALIZED = "initialized";
+
+    /**
+     * Labels stored with a note, all of them are counted. A transaction replacing the labels of a note writes the note,
+     * the totals and an item for every removed and added label, which keeps it within {@link NoteTransactions#MAX_ITEMS}.
+     */
+    public static final int MAX_LABELS = (NoteTransactions.MAX_ITEMS - 2) / 2;
+
+    private final Map<String, Long> totals = new LinkedHashMap<>();
+    private final Map<String, Long> labels = new LinkedHashMap<>();
+
+    private StatisticsUpdate() {
+    }
+
+    /**
+     * @param previous note as stored before the write, {@code null} when it did not exist
+     * @param current  note as stored after the write, {@code null} when it was deleted
+     */
+    public static final StatisticsUpdate between(PersistedNote previous, PersistedNote current) {
+        StatisticsUpdate update = new StatisticsUpdate();
+        if (nonNull(previous)) {
+            update.count(previous, -1);
+        }
+        if (nonNull(current)) {
+            update.count(current, 1);
+        }
+        update.totals.values().removeIf(delta -> delta == 0);
+        update.labels.values().removeIf(delta -> delta == 0);
+        return update;
+    }
+
+    /**
+     * @return counts of all given notes, as stored by a rebuild of the statistics
+     */
+    static StatisticsUpdate of(Iterable<PersistedNote> notes) {
+        StatisticsUpdate update = new StatisticsUpdate();
+        for (PersistedNote note : notes) {
+            update.count(note, 1);
+        }
+        update.labels.values().removeIf(count -> count == 0);
+        return update;
+    }
+
+    /**
+     * @return distinct labels of the note, in the order they are stored
+     */
+    public static List<String> countedLabels(PersistedNote note) {
+        if (nonNull(note.getLabels())) {
+            return note.getLabels()
+                    .stream()
+                    .filter(label -> nonNull(label) && !label.isEmpty())
+                    .distinct()
+                    .collect(Collectors.toList());
+        }
+        return Collections.emptyList();
+    }
+
+    public static Map<String, AttributeValue> key(String userId, String statistic) {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put(USER_ID, new AttributeValue().withS(userId));
+        key.put(STATISTIC, new AttributeValue().withS(statistic));
+        return key;
+    }
+
+    /**
+     * @return atomic increments of the affected statistics items, to be written in one transaction with the note,
+     * none when the write does not change any statistics
+     */
+    public List<TransactWriteItem> transactWriteItems(String statisticsTableName, String userId) {
+        final List<TransactWriteItem> items = new ArrayList<>();
+        if (totals.isEmpty() && labels.isEmpty()) {
+            return items;
+        }
+        final Map<String, Long> totals = new LinkedHashMap<>(this.totals);
+        totals.put(REVISION, 1L);
+        items.add(increment(statisticsTableName, key(userId, TOTALS), totals));
+        for (Map.Entry<String, Long> label : labels.entrySet()) {
+            items.add(increment(statisticsTableName, key(userId, LABEL_PREFIX + label.getKey()), Collections.singletonMap(COUNT, label.getValue())));
+        }
+        return items;
+    }
+
+    Map<String, Long> getTotals() {
+        return totals;
+    }
+
+    Map<String, Long> getLabels() {
+        return labels;
+    }
+
+    private static TransactWriteItem increment(String statisticsTableName, Map<String, AttributeValue> key, Map<String, Long> deltas) {
+        final List<String> actions = new ArrayList<>();
+        final Map<String, String> names = new HashMap<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            actions.add("#a" + i + " :v" + i);
+            names.put("#a" + i, delta.getKey());
+            values.put(":v" + i, new AttributeValue().withN(Long.toString(delta.getValue())));
+            i++;
+        }
+        return new TransactWriteItem().withUpdate(new Update()
+                .withTableName(statisticsTableName)
+                .withKey(key)
+                .withUpdateExpression("ADD " + String.join(", ", actions))
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values));
+    }
+
+    private void count(PersistedNote note, long sign) {
+        totals.merge(NOTES, sign, Long::sum);
+        if (nonNull(note.getType())) {
+            totals.merge(TYPE_PREFIX + note.getType(), sign, Long::sum);
+        }
+        if (nonNull(note.getSize())) {
+            totals.merge(BYTES, sign * note.getSize(), Long::sum);
+        }
+        for (String label : countedLabels(note)) {
+            labels.merge(label, sign, Long::sum);
+        }
+    }
+
+}
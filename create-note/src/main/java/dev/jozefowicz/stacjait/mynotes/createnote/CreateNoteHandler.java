@@ -8,22 +8,34 @@ import com.amazonaws.services.comprehend.model.DetectEntitiesRequest;
 import com.amazonaws.services.comprehend.model.DominantLanguage;
 import com.amazonaws.services.comprehend.model.Entity;
 import com.amazonaws.services.comprehend.model.LanguageCode;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.NoteTransactions;
 import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
+import dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,15 +47,27 @@ import static java.util.Objects.nonNull;
 public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
     private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String STATISTICS_TABLE_NAME = System.getenv("STATISTICS_TABLE_NAME");
     private final static List<String> SUPPORTED_LANGUAGES = Arrays.asList(LanguageCode.values()).stream().map(code -> code.toString()).collect(Collectors.toList());
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDB dynamoDB = new DynamoDB(AmazonDynamoDBClient.builder().build());
-    private final Table myNotesTable = dynamoDB.getTable(TABLE_NAME);
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final Table myNotesTable;
+    private final String tableName;
+    private final String statisticsTableName;
 
-    private final AmazonComprehend comprehendClient = AmazonComprehendClient.builder().build();
+    private final AmazonComprehend comprehendClient;
 
     public CreateNoteHandler() {
+        this(AmazonDynamoDBClient.builder().build(), AmazonComprehendClient.builder().build(), TABLE_NAME, STATISTICS_TABLE_NAME);
+    }
+
+    public CreateNoteHandler(AmazonDynamoDB amazonDynamoDB, AmazonComprehend comprehendClient, String tableName, String statisticsTableName) {
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.myNotesTable = new DynamoDB(amazonDynamoDB).getTable(tableName);
+        this.tableName = tableName;
+        this.statisticsTableName = statisticsTableName;
+        this.comprehendClient = comprehendClient;
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
@@ -65,17 +89,19 @@ public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestE
 
             final PersistedNote note = this.objectMapper.readValue(request.getBody(), PersistedNote.class);
 
-            if (invalid(note)) {
-                return response(400, null);
-            }
-
             switch (request.getHttpMethod().toUpperCase()) {
                 case "PUT":
+                    if (invalidUpdate(note)) {
+                        return response(400, null);
+                    }
                     if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
                         return put(userId, request.getPathParameters().get("id"), note);
                     }
                     return response(400, null);
                 case "POST":
+                    if (invalid(note)) {
+                        return response(400, null);
+                    }
                     return post(userId, note);
                 default:
                     return response(405, null);
@@ -87,38 +113,142 @@ public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestE
         }
     }
 
-    private APIGatewayProxyResponseEvent post(String userId, PersistedNote note) throws JsonProcessingException {
+    private APIGatewayProxyResponseEvent post(String userId, PersistedNote note) throws IOException {
         PersistedNote newNote = PersistedNote.create(userId, note.getTitle(), note.getText(), analyze(note.getText()));
-        persist(newNote);
-        return response(200, null);
+        final Map<String, AttributeValue> item = ItemUtils.toAttributeValues(Item.fromJSON(this.objectMapper.writeValueAsString(newNote)));
+        NoteTransactions.write(amazonDynamoDB, NoteTransactions.create(tableName, item), StatisticsUpdate.between(null, newNote), statisticsTableName, userId);
+        return response(200, this.objectMapper.writeValueAsString(ResponseNote.fromPersistedNote(newNote)));
     }
 
     private boolean invalid(PersistedNote note) {
         return isNull(note.getText()) || note.getText().isEmpty() || isNull(note.getTitle()) || note.getTitle().isEmpty();
     }
 
-    private APIGatewayProxyResponseEvent put(String userId, String noteId, PersistedNote note) throws JsonProcessingException {
-        PersistedNote updated = PersistedNote.updated(userId, noteId, note.getTitle(), note.getText(), analyze(note.getText()));
-        persist(updated);
-        return response(200, null);
+    /**
+     * An update carries the attributes being edited only, at least one of them and none of them empty.
+     */
+    private boolean invalidUpdate(PersistedNote note) {
+        return (isNull(note.getText()) && isNull(note.getTitle()))
+                || (nonNull(note.getText()) && note.getText().isEmpty())
+                || (nonNull(note.getTitle()) && note.getTitle().isEmpty());
+    }
+
+    /**
+     * Writes the note only if it is still in the version the client has read, otherwise responds with 409
+     * and the current note so the client can reconcile without listing all notes. The note is read first
+     * so the statistics change can be written in the same transaction as the note, and so only attributes
+     * which actually change are written. Labels of a text note are detected again only when its text changes,
+     * labels of uploaded files are detected in the file and are kept.
+     */
+    private APIGatewayProxyResponseEvent put(String userId, String noteId, PersistedNote note) throws IOException {
+        final PersistedNote previous = read(userId, noteId);
+        if (isNull(previous)) {
+            return response(404, null);
+        } else if (previous.getVersion() != note.getVersion()) {
+            return response(409, this.objectMapper.writeValueAsString(ResponseNote.fromPersistedNote(previous)));
+        }
+        final String title = changed(note.getTitle(), previous.getTitle());
+        final String text = changed(note.getText(), previous.getText());
+        if (isNull(title) && isNull(text)) {
+            return response(200, this.objectMapper.writeValueAsString(ResponseNote.fromPersistedNote(previous)));
+        }
+        final boolean stored = nonNull(previous.getType()) && previous.getType().isStored();
+        final List<String> labels = isNull(text) || stored ? null : analyze(text);
+        final PersistedNote updated = PersistedNote.updated(userId, noteId, title, text, labels, note.getVersion() + 1);
+        final PersistedNote current = PersistedNote.applied(previous, updated);
+        try {
+            NoteTransactions.write(amazonDynamoDB, update(updated, note.getVersion()), StatisticsUpdate.between(previous, current), statisticsTableName, userId);
+        } catch (TransactionCanceledException e) {
+            if (NoteTransactions.noteConditionFailed(e)) {
+                return conflict(userId, noteId);
+            }
+            throw e;
+        }
+        return response(200, this.objectMapper.writeValueAsString(ResponseNote.fromPersistedNote(current)));
+    }
+
+    private static String changed(String supplied, String previous) {
+        return nonNull(supplied) && !supplied.equals(previous) ? supplied : null;
     }
 
+    /**
+     * @param updated changed attributes, the ones left {@code null} are not written
+     */
+    private TransactWriteItem update(PersistedNote updated, long expectedVersion) {
+        final List<String> actions = new ArrayList<>();
+        final Map<String, String> names = new HashMap<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        if (nonNull(updated.getTitle())) {
+            actions.add("#title = :title");
+            names.put("#title", "title");
+            values.put(":title", new AttributeValue().withS(updated.getTitle()));
+        }
+        if (nonNull(updated.getText())) {
+            actions.add("#text = :text");
+            names.put("#text", "text");
+            values.put(":text", new AttributeValue().withS(updated.getText()));
+        }
+        if (nonNull(updated.getLabels())) {
+            actions.add("#labels = :labels");
+            names.put("#labels", "labels");
+            values.put(":labels", ItemUtils.toAttributeValue(updated.getLabels()));
+        }
+        actions.add("#timestamp = :timestamp");
+        actions.add("#version = :version");
+        names.put("#timestamp", "timestamp");
+        values.put(":timestamp", new AttributeValue().withN(Long.toString(updated.getTimestamp())));
+        values.put(":version", new AttributeValue().withN(Long.toString(updated.getVersion())));
+        final String condition = NoteTransactions.versionCondition(expectedVersion, names, values);
+        return new TransactWriteItem().withUpdate(new Update()
+                .withTableName(tableName)
+                .withKey(NoteTransactions.key(updated.getUserId(), updated.getNoteId()))
+                .withUpdateExpression("SET " + String.join(", ", actions))
+                .withConditionExpression(condition)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values));
+    }
+
+    private PersistedNote read(String userId, String noteId) throws IOException {
+        final Item item = myNotesTable.getItem(new GetItemSpec()
+                .withPrimaryKey(primaryKey(userId, noteId))
+                .withConsistentRead(true));
+        return isNull(item) ? null : this.objectMapper.readValue(item.toJSON(), PersistedNote.class);
+    }
+
+    private APIGatewayProxyResponseEvent conflict(String userId, String noteId) throws IOException {
+        final PersistedNote current = read(userId, noteId);
+        if (isNull(current)) {
+            return response(404, null);
+        }
+        return response(409, this.objectMapper.writeValueAsString(ResponseNote.fromPersistedNote(current)));
+    }
+
+    private PrimaryKey primaryKey(String userId, String noteId) {
+        return new PrimaryKey()
+                .addComponent("userId", userId)
+                .addComponent("noteId", noteId);
+    }
+
+    /**
+     * @return at most {@link StatisticsUpdate#MAX_LABELS} labels, the most confident first
+     */
     private List<String> analyze(String textToAnalyze) {
         // detecting dominant languages
         DetectDominantLanguageResult dominantLanguage = comprehendClient.detectDominantLanguage(new DetectDominantLanguageRequest().withText(textToAnalyze));
-        dominantLanguage.getLanguages().stream().map(l -> l.getLanguageCode()).forEach(System.out::println);
-        return new ArrayList<>(dominantLanguage.getLanguages()
+        return dominantLanguage.getLanguages()
                 .stream()
                 .map(DominantLanguage::getLanguageCode) // mapping to detected language codes
                 .filter(SUPPORTED_LANGUAGES::contains) // filtering to supported ones
                 .map(code -> comprehendClient.detectEntities(new DetectEntitiesRequest().withText(textToAnalyze).withLanguageCode(code))) // analyzing text
                 .flatMap(detectEntitiesResponse -> detectEntitiesResponse.getEntities().stream())// flatmapping to get list of entities
-                .map(Entity::getText)// getting labels
-                .collect(Collectors.toSet()));
-    }
-
-    private void persist(PersistedNote note) throws JsonProcessingException {
-        myNotesTable.putItem(Item.fromJSON(this.objectMapper.writeValueAsString(note)));
+                .filter(entity -> nonNull(entity.getText()) && !entity.getText().isEmpty())
+                .collect(Collectors.toMap(Entity::getText, entity -> nonNull(entity.getScore()) ? entity.getScore() : 0f, Math::max)) // best score of every label
+                .entrySet()
+                .stream()
+                .sorted(Map.Entry.<String, Float>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey())) // deterministic order
+                .limit(StatisticsUpdate.MAX_LABELS)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
     }
 
 }
@@ -1,12 +1,16 @@
 package dev.jozefowicz.stacjait.mynotes.deletenote;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
-import com.amazonaws.services.dynamodbv2.document.DeleteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.Table;
-import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
-import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
@@ -14,8 +18,15 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.NoteTransactions;
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
@@ -26,13 +37,31 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
 
     private final static String BUCKET_NAME = System.getenv("BUCKET_NAME");
     private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String STATISTICS_TABLE_NAME = System.getenv("STATISTICS_TABLE_NAME");
+    private final static int MAX_ATTEMPTS = 3;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDB dynamoDB = new DynamoDB(AmazonDynamoDBClient.builder().build());
-    private final Table myNotesTable = dynamoDB.getTable(TABLE_NAME);
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final Table myNotesTable;
+    private final String tableName;
+    private final String statisticsTableName;
 
-    private final AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
-            .build();
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+
+    public DeleteNoteHandler() {
+        this(AmazonDynamoDBClient.builder().build(), AmazonS3ClientBuilder.standard().build(), TABLE_NAME, STATISTICS_TABLE_NAME, BUCKET_NAME);
+    }
+
+    public DeleteNoteHandler(AmazonDynamoDB amazonDynamoDB, AmazonS3 amazonS3, String tableName, String statisticsTableName, String bucketName) {
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.myNotesTable = new DynamoDB(amazonDynamoDB).getTable(tableName);
+        this.tableName = tableName;
+        this.statisticsTableName = statisticsTableName;
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
@@ -49,20 +78,7 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
             final String userId = claims.get("cognito:username");
 
             if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
-                final PrimaryKey primaryKey = new PrimaryKey()
-                        .addComponent("userId", userId)
-                        .addComponent("noteId", request.getPathParameters().get("id"));
-                final DeleteItemSpec deleteItemSpec = new DeleteItemSpec()
-                        .withPrimaryKey(primaryKey)
-                        .withReturnValues(ReturnValue.ALL_OLD);
-                final DeleteItemOutcome deleteItemOutcome = myNotesTable.deleteItem(deleteItemSpec);
-                final String s3Location = deleteItemOutcome.getItem().getString("s3Location");
-
-                if (nonNull(s3Location)) {
-                    amazonS3.deleteObject(new DeleteObjectRequest(BUCKET_NAME, s3Location));
-                }
-
-                return response(200, null);
+                return delete(userId, request.getPathParameters().get("id"));
             }
 
             return response(400, null);
@@ -73,5 +89,48 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
         }
     }
 
+    /**
+     * Deletes the note in the version it has been read in together with its statistics, reading it again
+     * when it has been updated in the meantime.
+     */
+    private APIGatewayProxyResponseEvent delete(String userId, String noteId) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            final Item item = myNotesTable.getItem(new GetItemSpec()
+                    .withPrimaryKey(new PrimaryKey()
+                            .addComponent("userId", userId)
+                            .addComponent("noteId", noteId))
+                    .withConsistentRead(true));
+            if (isNull(item)) {
+                return response(200, null);
+            }
+            final PersistedNote deleted = this.objectMapper.readValue(item.toJSON(), PersistedNote.class);
+            try {
+                NoteTransactions.write(amazonDynamoDB, delete(deleted), StatisticsUpdate.between(deleted, null), statisticsTableName, userId);
+            } catch (TransactionCanceledException e) {
+                if (NoteTransactions.noteConditionFailed(e) && attempt < MAX_ATTEMPTS) {
+                    continue;
+                }
+                throw e;
+            }
+
+            if (nonNull(deleted.getS3Location())) {
+                amazonS3.deleteObject(new DeleteObjectRequest(bucketName, deleted.getS3Location()));
+            }
+
+            return response(200, null);
+        }
+    }
+
+    private TransactWriteItem delete(PersistedNote note) {
+        final Map<String, String> names = new HashMap<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        final String condition = NoteTransactions.versionCondition(note.getVersion(), names, values);
+        return new TransactWriteItem().withDelete(new Delete()
+                .withTableName(tableName)
+                .withKey(NoteTransactions.key(note.getUserId(), note.getNoteId()))
+                .withConditionExpression(condition)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values.isEmpty() ? null : values));
+    }
 
 }
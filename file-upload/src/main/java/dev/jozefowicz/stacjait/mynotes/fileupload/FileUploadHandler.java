@@ -1,6 +1,7 @@
 package dev.jozefowicz.stacjait.mynotes.fileupload;
 
 import com.amazonaws.HttpMethod;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
@@ -33,13 +34,19 @@ public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestE
     private final static String TABLE_NAME = System.getenv("TABLE_NAME");
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDB dynamoDB = new DynamoDB(AmazonDynamoDBClient.builder().build());
-    private final Table myNotesTable = dynamoDB.getTable(TABLE_NAME);
+    private final Table myNotesTable;
 
-    private final AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
-            .build();
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
 
     public FileUploadHandler() {
+        this(AmazonDynamoDBClient.builder().build(), AmazonS3ClientBuilder.standard().build(), TABLE_NAME, BUCKET_NAME);
+    }
+
+    public FileUploadHandler(AmazonDynamoDB amazonDynamoDB, AmazonS3 amazonS3, String tableName, String bucketName) {
+        this.myNotesTable = new DynamoDB(amazonDynamoDB).getTable(tableName);
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
@@ -98,6 +105,6 @@ public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestE
     }
 
     private String presignedUrl(String key, HttpMethod httpMethod) {
-        return amazonS3.generatePresignedUrl(new GeneratePresignedUrlRequest(BUCKET_NAME, key, httpMethod)).toString();
+        return amazonS3.generatePresignedUrl(new GeneratePresignedUrlRequest(bucketName, key, httpMethod)).toString();
     }
 }
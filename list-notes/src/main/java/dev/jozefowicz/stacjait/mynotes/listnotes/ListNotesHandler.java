@@ -1,5 +1,6 @@
 package dev.jozefowicz.stacjait.mynotes.listnotes;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
@@ -28,10 +29,14 @@ public class ListNotesHandler implements RequestHandler<APIGatewayProxyRequestEv
     private  static final String TABLE_NAME = System.getenv("TABLE_NAME");
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDB dynamoDB = new DynamoDB(AmazonDynamoDBClient.builder().build());
-    private final Table myNotesTable = dynamoDB.getTable(TABLE_NAME);
+    private final Table myNotesTable;
 
     public ListNotesHandler() {
+        this(AmazonDynamoDBClient.builder().build(), TABLE_NAME);
+    }
+
+    public ListNotesHandler(AmazonDynamoDB amazonDynamoDB, String tableName) {
+        this.myNotesTable = new DynamoDB(amazonDynamoDB).getTable(tableName);
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
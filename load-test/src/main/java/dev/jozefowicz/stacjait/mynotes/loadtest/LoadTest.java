@@ -0,0 +1,362 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import dev.jozefowicz.stacjait.mynotes.createnote.CreateNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.deletenote.DeleteNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.fileupload.FileUploadHandler;
+import dev.jozefowicz.stacjait.mynotes.listnotes.ListNotesHandler;
+import dev.jozefowicz.stacjait.mynotes.notestatistics.NoteStatisticsHandler;
+import dev.jozefowicz.stacjait.mynotes.processfile.ProcessFileHandler;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives all note handlers in-process against local stand-ins of DynamoDB, S3, Comprehend and Rekognition
+ * and reports throughput, latency percentiles, garbage collection and allocation figures.
+ * Allocation per operation covers everything the worker thread does: building the request, the handler
+ * and the stand-ins it calls.
+ */
+public class LoadTest {
+
+    private static final String TABLE_NAME = "notes";
+    private static final String STATISTICS_TABLE_NAME = "statistics";
+    private static final String BUCKET_NAME = "my-notes";
+    private static final int TEXT_POOL_SIZE = 256;
+    private static final String[] FILE_NAMES = {"photo.jpg", "scan.png", "document.pdf", "notes.txt"};
+    private static final double MB = 1024 * 1024;
+
+    private final LoadTestOptions options;
+    private final List<ServiceBehaviour> behaviours;
+    private final LocalS3 localS3;
+    private final NotesClient client;
+    private final OperationMix mix;
+    private final SizeDistribution fileSize;
+    private final List<String> texts = new ArrayList<>();
+    private final List<UserState> users = new ArrayList<>();
+    private final Map<Operation, OperationMetrics> metrics = new EnumMap<>(Operation.class);
+    private final AtomicLong missedStarts = new AtomicLong();
+
+    private long measureStart;
+    private long end;
+    private long measureEnd;
+
+    public LoadTest(LoadTestOptions options) {
+        this.options = options;
+        final ServiceBehaviour dynamoDBBehaviour = options.serviceBehaviour("dynamodb", "AmazonDynamoDBv2", "ProvisionedThroughputExceededException", 10, 25);
+        final ServiceBehaviour s3Behaviour = options.serviceBehaviour("s3", "Amazon S3", "SlowDown", 3, 100);
+        final ServiceBehaviour comprehendBehaviour = options.serviceBehaviour("comprehend", "AmazonComprehend", "ThrottlingException", 3, 100);
+        final ServiceBehaviour rekognitionBehaviour = options.serviceBehaviour("rekognition", "AmazonRekognition", "ProvisionedThroughputExceededException", 3, 100);
+        this.behaviours = Arrays.asList(dynamoDBBehaviour, s3Behaviour, comprehendBehaviour, rekognitionBehaviour);
+
+        final LocalDynamoDB localDynamoDB = new LocalDynamoDB(dynamoDBBehaviour);
+        localDynamoDB.createTable(new CreateTableRequest()
+                .withTableName(TABLE_NAME)
+                .withKeySchema(new KeySchemaElement("userId", KeyType.HASH), new KeySchemaElement("noteId", KeyType.RANGE)));
+        localDynamoDB.createTable(new CreateTableRequest()
+                .withTableName(STATISTICS_TABLE_NAME)
+                .withKeySchema(new KeySchemaElement("userId", KeyType.HASH), new KeySchemaElement("statistic", KeyType.RANGE)));
+        this.localS3 = new LocalS3(s3Behaviour);
+        final LocalComprehend localComprehend = new LocalComprehend(comprehendBehaviour);
+        final LocalRekognition localRekognition = new LocalRekognition(rekognitionBehaviour);
+
+        this.client = new NotesClient(
+                new CreateNoteHandler(localDynamoDB, localComprehend, TABLE_NAME, STATISTICS_TABLE_NAME),
+                new ListNotesHandler(localDynamoDB, TABLE_NAME),
+                new DeleteNoteHandler(localDynamoDB, localS3, TABLE_NAME, STATISTICS_TABLE_NAME, BUCKET_NAME),
+                new FileUploadHandler(localDynamoDB, localS3, TABLE_NAME, BUCKET_NAME),
+                new ProcessFileHandler(localDynamoDB, localRekognition, TABLE_NAME, STATISTICS_TABLE_NAME),
+                new NoteStatisticsHandler(localDynamoDB, TABLE_NAME, STATISTICS_TABLE_NAME),
+                localS3,
+                BUCKET_NAME);
+        this.mix = options.getMix();
+        this.fileSize = options.getFileSize();
+
+        // texts are generated upfront so that neither latency nor allocation of operations includes generating them
+        final Random random = new Random();
+        final SizeDistribution textSize = options.getTextSize();
+        for (int i = 0; i < TEXT_POOL_SIZE; i++) {
+            texts.add(Vocabulary.text(textSize.sample(random), random));
+        }
+        for (int i = 0; i < options.getUsers(); i++) {
+            users.add(new UserState(String.format("user-%06d", i)));
+        }
+        for (Operation operation : Operation.values()) {
+            metrics.put(operation, new OperationMetrics());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadTest loadTest;
+        try {
+            final LoadTestOptions options = LoadTestOptions.parse(args);
+            if (options.isHelp()) {
+                System.out.println(LoadTestOptions.USAGE);
+                return;
+            }
+            loadTest = new LoadTest(options);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        loadTest.run();
+    }
+
+    public void run() throws Exception {
+        System.out.println("Options: " + options);
+        if (!JvmMetrics.isAllocationSupported()) {
+            System.out.println("Per-thread allocation tracking is not supported by this JVM, allocation figures will be 0");
+        }
+        seed();
+
+        final long start = System.nanoTime();
+        measureStart = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        end = measureStart + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < options.getThreads(); i++) {
+            final Thread worker = new Thread(this::work, "load-test-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        System.out.printf("Warming up for %d s%n", options.getWarmupSeconds());
+        sleepUntil(measureStart);
+        final Map<String, long[]> collectionsBefore = JvmMetrics.garbageCollections();
+        JvmMetrics.resetPeakHeapUsage();
+
+        long errors = 0;
+        final long interval = TimeUnit.SECONDS.toNanos(options.getReportIntervalSeconds());
+        long intervalStart = measureStart;
+        for (long next = measureStart + interval; next < end + interval; next += interval) {
+            long intervalEnd = Math.min(next, end);
+            sleepUntil(intervalEnd);
+            if (intervalEnd == end) {
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                // operations in flight at the end complete after it
+                intervalEnd = System.nanoTime();
+                measureEnd = intervalEnd;
+            }
+            errors = printInterval(intervalStart, intervalEnd, errors);
+            intervalStart = intervalEnd;
+        }
+
+        printReport(collectionsBefore);
+    }
+
+    private void seed() throws Exception {
+        if (options.getInitialNotes() == 0) {
+            return;
+        }
+        System.out.printf("Creating %d notes for each of %d users%n", options.getInitialNotes(), users.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        try {
+            final List<Future<?>> seeding = new ArrayList<>();
+            for (UserState user : users) {
+                seeding.add(executor.submit(() -> {
+                    final LoadTestContext context = new LoadTestContext("load-test-seed");
+                    final Random random = ThreadLocalRandom.current();
+                    for (int i = 0; i < options.getInitialNotes(); i++) {
+                        client.create(user, "Note " + i, texts.get(random.nextInt(texts.size())), context);
+                    }
+                }));
+            }
+            for (Future<?> future : seeding) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Worker loop. With a target rate every worker keeps its own schedule and latency is measured from the
+     * scheduled start, so a stalled handler shows up in the percentiles instead of just lowering the throughput.
+     * Workers stop at the end of the measured duration even when behind schedule, the operations they could not
+     * start are counted as missed.
+     */
+    private void work() {
+        final Random random = ThreadLocalRandom.current();
+        final LoadTestContext context = new LoadTestContext("load-test");
+        final long schedule = options.getRate() > 0 ? (long) (options.getThreads() * TimeUnit.SECONDS.toNanos(1) / options.getRate()) : 0;
+        long intended = System.nanoTime();
+        while (true) {
+            if (schedule > 0) {
+                sleepUntil(intended);
+            } else {
+                intended = System.nanoTime();
+            }
+            final long now = System.nanoTime();
+            if (intended >= end || now >= end) {
+                if (schedule > 0 && intended < end) {
+                    final long firstMissed = Math.max(intended, measureStart);
+                    missedStarts.addAndGet((end - firstMissed + schedule - 1) / schedule);
+                }
+                return;
+            }
+
+            final UserState user = users.get(random.nextInt(users.size()));
+            Operation operation = mix.next(random);
+            String noteId = null;
+            if (operation == Operation.UPDATE || operation == Operation.DELETE) {
+                noteId = user.anyNote(random);
+                if (noteId == null) {
+                    operation = Operation.CREATE;
+                }
+            }
+
+            final long allocatedBefore = JvmMetrics.currentThreadAllocatedBytes();
+            int statusCode;
+            try {
+                statusCode = execute(operation, user, noteId, random, context);
+            } catch (RuntimeException e) {
+                statusCode = 500;
+            }
+            final long allocated = JvmMetrics.currentThreadAllocatedBytes() - allocatedBefore;
+            if (intended >= measureStart) {
+                metrics.get(operation).record(System.nanoTime() - intended, statusCode, allocated);
+            }
+            intended += schedule;
+        }
+    }
+
+    private int execute(Operation operation, UserState user, String noteId, Random random, LoadTestContext context) {
+        switch (operation) {
+            case CREATE:
+                return client.create(user, "Note", texts.get(random.nextInt(texts.size())), context);
+            case UPDATE:
+                if (random.nextBoolean()) {
+                    // renaming sends the title only, no text analysis and no statistics write
+                    return client.update(user, noteId, "Renamed note " + random.nextInt(1000), null, context);
+                }
+                return client.update(user, noteId, null, texts.get(random.nextInt(texts.size())), context);
+            case LIST:
+                return client.list(user, context);
+            case DELETE:
+                return client.delete(user, noteId, context);
+            case UPLOAD:
+                return client.upload(user, FILE_NAMES[random.nextInt(FILE_NAMES.length)], fileSize.sample(random), context);
+            case STATISTICS:
+                return client.statistics(user, context);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    private long printInterval(long intervalStart, long intervalEnd, long previousErrors) {
+        final Histogram combined = new Histogram(3);
+        long errors = 0;
+        for (OperationMetrics operationMetrics : metrics.values()) {
+            combined.add(operationMetrics.takeInterval());
+            errors += operationMetrics.getCount(Outcome.ERROR);
+        }
+        final long elapsed = intervalEnd - measureStart;
+        final long length = intervalEnd - intervalStart;
+        System.out.printf("[%6d s] %9.1f ops/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms  errors %6d  heap used %7.1f MB%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsed),
+                combined.getTotalCount() / (length / 1e9),
+                millis(combined.getValueAtPercentile(50)),
+                millis(combined.getValueAtPercentile(99)),
+                millis(combined.getMaxValue()),
+                errors - previousErrors,
+                JvmMetrics.heapUsed() / MB);
+        return errors;
+    }
+
+    private void printReport(Map<String, long[]> collectionsBefore) {
+        // measured from the actual end, which includes the operations in flight when the duration ran out
+        final double seconds = (measureEnd - measureStart) / 1e9;
+        System.out.println();
+        System.out.printf("%-11s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %11s%n",
+                "operation", "count", "ops/s", "ok", "conflict", "not found", "error",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "alloc/op KB");
+        final Histogram all = new Histogram(3);
+        final long[] allOutcomes = new long[Outcome.values().length];
+        long allAllocated = 0;
+        for (Map.Entry<Operation, OperationMetrics> entry : metrics.entrySet()) {
+            final OperationMetrics operationMetrics = entry.getValue();
+            final long[] outcomes = new long[Outcome.values().length];
+            for (Outcome outcome : Outcome.values()) {
+                outcomes[outcome.ordinal()] = operationMetrics.getCount(outcome);
+                allOutcomes[outcome.ordinal()] += outcomes[outcome.ordinal()];
+            }
+            all.add(operationMetrics.getTotal());
+            allAllocated += operationMetrics.getAllocatedBytes();
+            if (operationMetrics.getTotal().getTotalCount() > 0) {
+                printRow(entry.getKey().displayName(), operationMetrics.getTotal(), outcomes, operationMetrics.getAllocatedBytes(), seconds);
+            }
+        }
+        printRow("all", all, allOutcomes, allAllocated, seconds);
+        if (missedStarts.get() > 0) {
+            System.out.printf("%nMissed %d scheduled operations, the handlers could not sustain %.1f ops/s%n",
+                    missedStarts.get(), options.getRate());
+        }
+
+        System.out.println();
+        for (ServiceBehaviour behaviour : behaviours) {
+            System.out.printf("%-22s %10d calls %10d throttled attempts %8d failed after retries%n",
+                    behaviour.getServiceName(), behaviour.getCalls(), behaviour.getThrottledAttempts(), behaviour.getThrottledCalls());
+        }
+
+        System.out.println();
+        long collectionMillis = 0;
+        for (Map.Entry<String, long[]> collector : JvmMetrics.garbageCollections().entrySet()) {
+            final long[] before = collectionsBefore.getOrDefault(collector.getKey(), new long[2]);
+            final long count = collector.getValue()[0] - before[0];
+            final long time = collector.getValue()[1] - before[1];
+            collectionMillis += time;
+            System.out.printf("GC %-28s %8d collections %8d ms%n", collector.getKey(), count, time);
+        }
+        System.out.printf("GC time                        %8.2f %% of measured %.1f s%n", collectionMillis / (seconds * 10), seconds);
+        System.out.printf("Allocated                      %10.1f MB  %8.1f MB/s%n", allAllocated / MB, allAllocated / MB / seconds);
+        System.out.printf("Heap                           %10.1f MB max  %8.1f MB peak used (includes stand-in data)%n",
+                JvmMetrics.heapMax() / MB, JvmMetrics.peakHeapUsed() / MB);
+
+        long notes = 0;
+        for (UserState user : users) {
+            notes += user.noteCount();
+        }
+        System.out.printf("Stored                         %10d notes  %8d files%n", notes, localS3.getObjectCount());
+    }
+
+    private static void printRow(String name, Histogram latencies, long[] outcomes, long allocated, double seconds) {
+        final long count = latencies.getTotalCount();
+        System.out.printf("%-11s %9d %9.1f %9d %9d %9d %9d %9.2f %9.2f %9.2f %9.2f %9.2f %11.1f%n",
+                name, count, count / seconds,
+                outcomes[Outcome.OK.ordinal()], outcomes[Outcome.CONFLICT.ordinal()],
+                outcomes[Outcome.NOT_FOUND.ordinal()], outcomes[Outcome.ERROR.ordinal()],
+                millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()),
+                count == 0 ? 0 : allocated / 1024.0 / count);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static void sleepUntil(long deadline) {
+        for (long remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Lambda context of a single worker thread. Handlers log "Exception while processing ..." before swallowing
+ * an error, which is the only way to tell that {@code ProcessFileHandler} has failed, so such messages are counted.
+ */
+public class LoadTestContext implements Context {
+
+    private final String functionName;
+    private int exceptions;
+
+    private final LambdaLogger logger = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+            if (message.startsWith("Exception")) {
+                exceptions++;
+            }
+        }
+
+        @Override
+        public void log(byte[] message) {
+            log(new String(message));
+        }
+    };
+
+    public LoadTestContext(String functionName) {
+        this.functionName = functionName;
+    }
+
+    public int getExceptions() {
+        return exceptions;
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return null;
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return null;
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return null;
+    }
+
+    @Override
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return null;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+
+}
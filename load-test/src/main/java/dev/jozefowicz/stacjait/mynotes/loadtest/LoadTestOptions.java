@@ -0,0 +1,179 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+public class LoadTestOptions {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("threads", "8");
+        DEFAULTS.put("users", "100");
+        DEFAULTS.put("initial-notes", "10");
+        DEFAULTS.put("rate", "0");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("report-interval", "10");
+        DEFAULTS.put("mix", "create:20,update:15,list:35,delete:10,upload:10,statistics:10");
+        DEFAULTS.put("text-size", "lognormal:1024:1.0");
+        DEFAULTS.put("file-size", "lognormal:1048576:1.5");
+        DEFAULTS.put("dynamodb-latency", "2-8");
+        DEFAULTS.put("dynamodb-throttle", "0");
+        DEFAULTS.put("s3-latency", "10-40");
+        DEFAULTS.put("s3-throttle", "0");
+        DEFAULTS.put("comprehend-latency", "40-120");
+        DEFAULTS.put("comprehend-throttle", "0");
+        DEFAULTS.put("rekognition-latency", "150-400");
+        DEFAULTS.put("rekognition-throttle", "0");
+    }
+
+    public static final String USAGE = "Usage: java -jar load-test.jar [--option=value ...]\n"
+            + "\n"
+            + "  --threads=N               concurrent workers (" + DEFAULTS.get("threads") + ")\n"
+            + "  --users=N                 simulated users, picked uniformly by workers (" + DEFAULTS.get("users") + ")\n"
+            + "  --initial-notes=N         notes created per user before the test (" + DEFAULTS.get("initial-notes") + ")\n"
+            + "  --rate=OPS                target throughput in operations per second, latencies are measured from\n"
+            + "                            the intended start so queueing is not hidden, operations which could not\n"
+            + "                            start before the end are reported as missed; 0 runs workers back to back ("
+            + DEFAULTS.get("rate") + ")\n"
+            + "  --warmup=SECONDS          unmeasured warmup (" + DEFAULTS.get("warmup") + ")\n"
+            + "  --duration=SECONDS        measured duration, use hours for soak tests (" + DEFAULTS.get("duration") + ")\n"
+            + "  --report-interval=SECONDS interval of progress lines (" + DEFAULTS.get("report-interval") + ")\n"
+            + "  --mix=OP:WEIGHT,...       operations: create, update, list, delete, upload, statistics\n"
+            + "                            (" + DEFAULTS.get("mix") + ")\n"
+            + "  --text-size=DISTRIBUTION  note text size in bytes: fixed:SIZE, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA\n"
+            + "                            (" + DEFAULTS.get("text-size") + ")\n"
+            + "  --file-size=DISTRIBUTION  uploaded file size in bytes (" + DEFAULTS.get("file-size") + ")\n"
+            + "  --SERVICE-latency=MIN-MAX uniformly distributed latency of one call in milliseconds\n"
+            + "  --SERVICE-throttle=P      probability of an attempt being throttled, retried like the SDK does\n"
+            + "                            SERVICE is one of dynamodb, s3, comprehend, rekognition\n"
+            + "  --help\n";
+
+    private final Map<String, String> values;
+
+    private LoadTestOptions(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public static LoadTestOptions parse(String[] args) {
+        final Map<String, String> values = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            if (arg.equals("--help")) {
+                values.put("help", "true");
+                continue;
+            }
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid argument " + arg);
+            }
+            final String name = arg.substring(2, separator);
+            if (!DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name);
+            }
+            values.put(name, arg.substring(separator + 1));
+        }
+        final LoadTestOptions options = new LoadTestOptions(values);
+        // fail fast on malformed values
+        options.getMix();
+        options.getTextSize();
+        options.getFileSize();
+        if (options.getThreads() < 1 || options.getUsers() < 1 || options.getDurationSeconds() < 1 || options.getReportIntervalSeconds() < 1
+                || options.getInitialNotes() < 0 || options.getWarmupSeconds() < 0 || options.getRate() < 0) {
+            throw new IllegalArgumentException("Numeric options have to be positive");
+        }
+        return options;
+    }
+
+    public boolean isHelp() {
+        return values.containsKey("help");
+    }
+
+    public int getThreads() {
+        return integer("threads");
+    }
+
+    public int getUsers() {
+        return integer("users");
+    }
+
+    public int getInitialNotes() {
+        return integer("initial-notes");
+    }
+
+    public double getRate() {
+        return decimal("rate");
+    }
+
+    public int getWarmupSeconds() {
+        return integer("warmup");
+    }
+
+    public int getDurationSeconds() {
+        return integer("duration");
+    }
+
+    public int getReportIntervalSeconds() {
+        return integer("report-interval");
+    }
+
+    public OperationMix getMix() {
+        return OperationMix.parse(values.get("mix"));
+    }
+
+    public SizeDistribution getTextSize() {
+        return SizeDistribution.parse(values.get("text-size"));
+    }
+
+    public SizeDistribution getFileSize() {
+        return SizeDistribution.parse(values.get("file-size"));
+    }
+
+    /**
+     * @param service        option prefix of the service
+     * @param throttlingCode error code the real service responds with when throttling
+     * @param maxRetries     retries of the SDK default retry policy for the service
+     * @param baseBackoff    base delay in milliseconds of the SDK default backoff strategy for the service
+     */
+    public ServiceBehaviour serviceBehaviour(String service, String serviceName, String throttlingCode, int maxRetries, long baseBackoff) {
+        final String latency = values.get(service + "-latency");
+        final String[] range = latency.split("-");
+        try {
+            final long min = Math.round(Double.parseDouble(range[0]) * 1000);
+            final long max = range.length > 1 ? Math.round(Double.parseDouble(range[1]) * 1000) : min;
+            return new ServiceBehaviour(serviceName, throttlingCode, min, max, decimal(service + "-throttle"), maxRetries, baseBackoff);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency " + latency + " for " + service, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder description = new StringBuilder();
+        for (String name : DEFAULTS.keySet()) {
+            description.append("--").append(name).append('=').append(values.get(name)).append(' ');
+        }
+        return description.toString().trim();
+    }
+
+    private int integer(String name) {
+        try {
+            return Integer.parseInt(values.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of --" + name, e);
+        }
+    }
+
+    private double decimal(String name) {
+        final String value = values.get(name);
+        try {
+            return isNull(value) ? 0 : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of --" + name, e);
+        }
+    }
+
+}
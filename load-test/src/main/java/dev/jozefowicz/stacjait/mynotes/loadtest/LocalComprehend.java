@@ -0,0 +1,52 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.services.comprehend.AbstractAmazonComprehend;
+import com.amazonaws.services.comprehend.model.DetectDominantLanguageRequest;
+import com.amazonaws.services.comprehend.model.DetectDominantLanguageResult;
+import com.amazonaws.services.comprehend.model.DetectEntitiesRequest;
+import com.amazonaws.services.comprehend.model.DetectEntitiesResult;
+import com.amazonaws.services.comprehend.model.DominantLanguage;
+import com.amazonaws.services.comprehend.model.Entity;
+import com.amazonaws.services.comprehend.model.EntityType;
+import com.amazonaws.services.comprehend.model.LanguageCode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stand-in for Comprehend which reports every text as English and every capitalized word as an entity.
+ */
+public class LocalComprehend extends AbstractAmazonComprehend {
+
+    private final ServiceBehaviour behaviour;
+
+    public LocalComprehend(ServiceBehaviour behaviour) {
+        this.behaviour = behaviour;
+    }
+
+    @Override
+    public DetectDominantLanguageResult detectDominantLanguage(DetectDominantLanguageRequest request) {
+        behaviour.call();
+        return new DetectDominantLanguageResult()
+                .withLanguages(new DominantLanguage().withLanguageCode(LanguageCode.En.toString()).withScore(0.99f));
+    }
+
+    @Override
+    public DetectEntitiesResult detectEntities(DetectEntitiesRequest request) {
+        behaviour.call();
+        final Set<String> words = new LinkedHashSet<>();
+        for (String word : request.getText().split("\\W+")) {
+            if (!word.isEmpty() && Character.isUpperCase(word.charAt(0))) {
+                words.add(word);
+            }
+        }
+        final List<Entity> entities = new ArrayList<>(words.size());
+        for (String word : words) {
+            entities.add(new Entity().withText(word).withType(EntityType.OTHER).withScore(0.9f));
+        }
+        return new DetectEntitiesResult().withEntities(entities);
+    }
+
+}
@@ -0,0 +1,421 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * In-memory stand-in for DynamoDB supporting the subset of the API the note handlers use:
+ * string keys, {@code SET}/{@code ADD}/{@code REMOVE} update expressions and conditions built of
+ * {@code attribute_exists}, {@code attribute_not_exists} and equality joined with {@code AND}.
+ * Writes to one partition are serialized so conditional writes and counters behave atomically,
+ * transactions lock all partitions they write to in a fixed order.
+ */
+public class LocalDynamoDB extends AbstractAmazonDynamoDB {
+
+    private static final int MAX_ITEM_SIZE = 400 * 1024;
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+
+    private final ServiceBehaviour behaviour;
+    private final Map<String, LocalTable> tables = new ConcurrentHashMap<>();
+
+    public LocalDynamoDB(ServiceBehaviour behaviour) {
+        this.behaviour = behaviour;
+    }
+
+    @Override
+    public CreateTableResult createTable(CreateTableRequest request) {
+        String hashKey = null;
+        String rangeKey = null;
+        for (KeySchemaElement element : request.getKeySchema()) {
+            if (KeyType.HASH.toString().equals(element.getKeyType())) {
+                hashKey = element.getAttributeName();
+            } else {
+                rangeKey = element.getAttributeName();
+            }
+        }
+        tables.put(request.getTableName(), new LocalTable(hashKey, rangeKey));
+        return new CreateTableResult().withTableDescription(new TableDescription()
+                .withTableName(request.getTableName())
+                .withKeySchema(request.getKeySchema()));
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        behaviour.call();
+        final LocalTable table = table(request.getTableName());
+        validateSize(request.getItem());
+        final Map<String, Map<String, AttributeValue>> items = table.partition(request.getItem());
+        synchronized (items) {
+            final String rangeKey = table.rangeKey(request.getItem());
+            final Map<String, AttributeValue> previous = items.get(rangeKey);
+            checkCondition(request.getConditionExpression(), previous, request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+            items.put(rangeKey, new HashMap<>(request.getItem()));
+            return new PutItemResult().withAttributes(returned(request.getReturnValues(), previous));
+        }
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        behaviour.call();
+        final LocalTable table = table(request.getTableName());
+        final Map<String, Map<String, AttributeValue>> items = table.partition(request.getKey());
+        synchronized (items) {
+            final Map<String, AttributeValue> item = items.get(table.rangeKey(request.getKey()));
+            return new GetItemResult().withItem(isNull(item) ? null : new HashMap<>(item));
+        }
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(DeleteItemRequest request) {
+        behaviour.call();
+        final LocalTable table = table(request.getTableName());
+        final Map<String, Map<String, AttributeValue>> items = table.partition(request.getKey());
+        synchronized (items) {
+            final String rangeKey = table.rangeKey(request.getKey());
+            checkCondition(request.getConditionExpression(), items.get(rangeKey), request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+            return new DeleteItemResult().withAttributes(returned(request.getReturnValues(), items.remove(rangeKey)));
+        }
+    }
+
+    @Override
+    public UpdateItemResult updateItem(UpdateItemRequest request) {
+        behaviour.call();
+        final LocalTable table = table(request.getTableName());
+        final Map<String, String> names = request.getExpressionAttributeNames();
+        final Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+        final Map<String, Map<String, AttributeValue>> items = table.partition(request.getKey());
+        synchronized (items) {
+            final String rangeKey = table.rangeKey(request.getKey());
+            final Map<String, AttributeValue> previous = items.get(rangeKey);
+            checkCondition(request.getConditionExpression(), previous, names, values);
+            items.put(rangeKey, updated(previous, request.getKey(), request.getUpdateExpression(), names, values));
+            return new UpdateItemResult().withAttributes(returned(request.getReturnValues(), previous));
+        }
+    }
+
+    @Override
+    public QueryResult query(QueryRequest request) {
+        behaviour.call();
+        final LocalTable table = table(request.getTableName());
+        final String[] keyCondition = request.getKeyConditionExpression().split("=");
+        if (keyCondition.length != 2) {
+            throw new UnsupportedOperationException("Unsupported key condition: " + request.getKeyConditionExpression());
+        }
+        final String attribute = resolve(keyCondition[0].trim(), request.getExpressionAttributeNames());
+        if (!attribute.equals(table.hashKey)) {
+            throw new UnsupportedOperationException("Only queries by hash key are supported");
+        }
+        final AttributeValue hashKey = request.getExpressionAttributeValues().get(keyCondition[1].trim());
+        final Map<String, Map<String, AttributeValue>> items = table.partition(Collections.singletonMap(table.hashKey, hashKey));
+        final List<Map<String, AttributeValue>> result = new ArrayList<>();
+        synchronized (items) {
+            for (Map<String, AttributeValue> item : items.values()) {
+                result.add(new HashMap<>(item));
+            }
+        }
+        return new QueryResult().withItems(result).withCount(result.size()).withScannedCount(result.size());
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(TransactWriteItemsRequest request) {
+        behaviour.call();
+        if (request.getTransactItems().size() > MAX_TRANSACTION_ITEMS) {
+            throw serviceException("ValidationException", "Member must have length less than or equal to " + MAX_TRANSACTION_ITEMS);
+        }
+        final Map<String, Map<String, Map<String, AttributeValue>>> locks = new TreeMap<>();
+        for (TransactWriteItem item : request.getTransactItems()) {
+            final String tableName = tableName(item);
+            locks.put(tableName + '\u0000' + table(tableName).hashKeyValue(key(item)), table(tableName).partition(key(item)));
+        }
+        locked(new ArrayList<Object>(locks.values()), 0, () -> transact(request.getTransactItems()));
+        return new TransactWriteItemsResult();
+    }
+
+    /**
+     * Checks the conditions of all items first and writes them only if all are met, holding the locks of all partitions.
+     */
+    private void transact(List<TransactWriteItem> transactItems) {
+        final List<CancellationReason> reasons = new ArrayList<>();
+        boolean cancelled = false;
+        for (TransactWriteItem item : transactItems) {
+            final LocalTable table = table(tableName(item));
+            final Map<String, AttributeValue> current = table.partition(key(item)).get(table.rangeKey(key(item)));
+            final boolean met;
+            if (nonNull(item.getPut())) {
+                met = conditionMet(item.getPut().getConditionExpression(), current, item.getPut().getExpressionAttributeNames(), item.getPut().getExpressionAttributeValues());
+            } else if (nonNull(item.getUpdate())) {
+                met = conditionMet(item.getUpdate().getConditionExpression(), current, item.getUpdate().getExpressionAttributeNames(), item.getUpdate().getExpressionAttributeValues());
+            } else if (nonNull(item.getDelete())) {
+                met = conditionMet(item.getDelete().getConditionExpression(), current, item.getDelete().getExpressionAttributeNames(), item.getDelete().getExpressionAttributeValues());
+            } else {
+                final ConditionCheck check = item.getConditionCheck();
+                met = conditionMet(check.getConditionExpression(), current, check.getExpressionAttributeNames(), check.getExpressionAttributeValues());
+            }
+            reasons.add(new CancellationReason().withCode(met ? "None" : "ConditionalCheckFailed"));
+            cancelled |= !met;
+        }
+        if (cancelled) {
+            final TransactionCanceledException exception = new TransactionCanceledException("Transaction cancelled, please refer cancellation reasons for specific reasons "
+                    + reasons.stream().map(CancellationReason::getCode).collect(Collectors.toList()));
+            exception.setCancellationReasons(reasons);
+            exception.setErrorCode("TransactionCanceledException");
+            exception.setStatusCode(400);
+            throw exception;
+        }
+        for (TransactWriteItem item : transactItems) {
+            final LocalTable table = table(tableName(item));
+            final Map<String, Map<String, AttributeValue>> items = table.partition(key(item));
+            final String rangeKey = table.rangeKey(key(item));
+            if (nonNull(item.getPut())) {
+                validateSize(item.getPut().getItem());
+                items.put(rangeKey, new HashMap<>(item.getPut().getItem()));
+            } else if (nonNull(item.getUpdate())) {
+                final Update update = item.getUpdate();
+                items.put(rangeKey, updated(items.get(rangeKey), update.getKey(), update.getUpdateExpression(), update.getExpressionAttributeNames(), update.getExpressionAttributeValues()));
+            } else if (nonNull(item.getDelete())) {
+                items.remove(rangeKey);
+            }
+        }
+    }
+
+    private static void locked(List<Object> locks, int index, Runnable action) {
+        if (index == locks.size()) {
+            action.run();
+            return;
+        }
+        synchronized (locks.get(index)) {
+            locked(locks, index + 1, action);
+        }
+    }
+
+    private static String tableName(TransactWriteItem item) {
+        if (nonNull(item.getPut())) {
+            return item.getPut().getTableName();
+        } else if (nonNull(item.getUpdate())) {
+            return item.getUpdate().getTableName();
+        } else if (nonNull(item.getDelete())) {
+            return item.getDelete().getTableName();
+        }
+        return item.getConditionCheck().getTableName();
+    }
+
+    private static Map<String, AttributeValue> key(TransactWriteItem item) {
+        if (nonNull(item.getPut())) {
+            return item.getPut().getItem();
+        } else if (nonNull(item.getUpdate())) {
+            return item.getUpdate().getKey();
+        } else if (nonNull(item.getDelete())) {
+            return item.getDelete().getKey();
+        }
+        return item.getConditionCheck().getKey();
+    }
+
+    private LocalTable table(String tableName) {
+        final LocalTable table = tables.get(tableName);
+        if (isNull(table)) {
+            throw serviceException("ResourceNotFoundException", "Requested resource not found: Table: " + tableName + " not found");
+        }
+        return table;
+    }
+
+    private static Map<String, AttributeValue> returned(String returnValues, Map<String, AttributeValue> previous) {
+        if (ReturnValue.ALL_OLD.toString().equals(returnValues) && nonNull(previous)) {
+            return new HashMap<>(previous);
+        }
+        return null;
+    }
+
+    private static void checkCondition(String condition, Map<String, AttributeValue> item, Map<String, String> names, Map<String, AttributeValue> values) {
+        if (!conditionMet(condition, item, names, values)) {
+            final ConditionalCheckFailedException exception = new ConditionalCheckFailedException("The conditional request failed");
+            exception.setErrorCode("ConditionalCheckFailedException");
+            exception.setStatusCode(400);
+            throw exception;
+        }
+    }
+
+    private static boolean conditionMet(String condition, Map<String, AttributeValue> item, Map<String, String> names, Map<String, AttributeValue> values) {
+        if (isNull(condition)) {
+            return true;
+        }
+        for (String term : condition.split("\\s+AND\\s+")) {
+            term = term.trim();
+            final boolean satisfied;
+            if (term.startsWith("attribute_exists(")) {
+                satisfied = nonNull(item) && item.containsKey(resolve(argument(term), names));
+            } else if (term.startsWith("attribute_not_exists(")) {
+                satisfied = isNull(item) || !item.containsKey(resolve(argument(term), names));
+            } else if (term.contains("=")) {
+                final String[] operands = term.split("=");
+                satisfied = nonNull(item) && values.get(operands[1].trim()).equals(item.get(resolve(operands[0].trim(), names)));
+            } else {
+                throw new UnsupportedOperationException("Unsupported condition: " + term);
+            }
+            if (!satisfied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, AttributeValue> updated(Map<String, AttributeValue> previous, Map<String, AttributeValue> key, String expression,
+                                                       Map<String, String> names, Map<String, AttributeValue> values) {
+        final Map<String, AttributeValue> updated = isNull(previous) ? new HashMap<>(key) : new HashMap<>(previous);
+        for (String section : expression.trim().split("\\s+(?=(SET|ADD|REMOVE)\\s)")) {
+            final String action = section.substring(0, section.indexOf(' '));
+            for (String clause : section.substring(action.length()).split(",")) {
+                apply(action, clause.trim(), updated, names, values);
+            }
+        }
+        validateSize(updated);
+        return updated;
+    }
+
+    private static void apply(String action, String clause, Map<String, AttributeValue> item, Map<String, String> names, Map<String, AttributeValue> values) {
+        switch (action) {
+            case "SET": {
+                final String[] operands = clause.split("=");
+                item.put(resolve(operands[0].trim(), names), values.get(operands[1].trim()));
+                break;
+            }
+            case "ADD": {
+                final String[] operands = clause.split("\\s+");
+                final String attribute = resolve(operands[0], names);
+                final AttributeValue current = item.get(attribute);
+                final BigDecimal sum = new BigDecimal(values.get(operands[1]).getN())
+                        .add(isNull(current) ? BigDecimal.ZERO : new BigDecimal(current.getN()));
+                item.put(attribute, new AttributeValue().withN(sum.toPlainString()));
+                break;
+            }
+            case "REMOVE":
+                item.remove(resolve(clause, names));
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported update action: " + action);
+        }
+    }
+
+    private static String argument(String function) {
+        return function.substring(function.indexOf('(') + 1, function.lastIndexOf(')')).trim();
+    }
+
+    private static String resolve(String path, Map<String, String> names) {
+        return path.startsWith("#") ? names.get(path) : path;
+    }
+
+    /**
+     * Approximates DynamoDB item size accounting: attribute names plus the size of their values.
+     */
+    private static void validateSize(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length + size(attribute.getValue());
+        }
+        if (size > MAX_ITEM_SIZE) {
+            throw serviceException("ValidationException", "Item size has exceeded the maximum allowed size");
+        }
+    }
+
+    private static long size(AttributeValue value) {
+        if (nonNull(value.getS())) {
+            return value.getS().getBytes(StandardCharsets.UTF_8).length;
+        } else if (nonNull(value.getN())) {
+            return value.getN().length();
+        } else if (nonNull(value.getL())) {
+            long size = 3;
+            for (AttributeValue element : value.getL()) {
+                size += 1 + size(element);
+            }
+            return size;
+        } else if (nonNull(value.getM())) {
+            long size = 3;
+            for (Map.Entry<String, AttributeValue> entry : value.getM().entrySet()) {
+                size += 1 + entry.getKey().length() + size(entry.getValue());
+            }
+            return size;
+        }
+        return 1;
+    }
+
+    private static AmazonServiceException serviceException(String errorCode, String message) {
+        final AmazonServiceException exception = new AmazonServiceException(message);
+        exception.setServiceName("AmazonDynamoDBv2");
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(400);
+        return exception;
+    }
+
+    private static final class LocalTable {
+        private final String hashKey;
+        private final String rangeKey;
+        private final Map<String, Map<String, Map<String, AttributeValue>>> partitions = new ConcurrentHashMap<>();
+
+        private LocalTable(String hashKey, String rangeKey) {
+            this.hashKey = hashKey;
+            this.rangeKey = rangeKey;
+        }
+
+        /**
+         * Items sharing the hash key of given key or item, ordered by range key. Also used as the partition lock.
+         */
+        private Map<String, Map<String, AttributeValue>> partition(Map<String, AttributeValue> key) {
+            return partitions.computeIfAbsent(keyValue(key, hashKey), hash -> new TreeMap<>());
+        }
+
+        private String hashKeyValue(Map<String, AttributeValue> key) {
+            return keyValue(key, hashKey);
+        }
+
+        private String rangeKey(Map<String, AttributeValue> key) {
+            return isNull(rangeKey) ? "" : keyValue(key, rangeKey);
+        }
+
+        private static String keyValue(Map<String, AttributeValue> key, String attribute) {
+            final AttributeValue value = key.get(attribute);
+            if (isNull(value) || (isNull(value.getS()) && isNull(value.getN()))) {
+                throw serviceException("ValidationException", "Missing key attribute " + attribute);
+            }
+            return nonNull(value.getS()) ? value.getS() : value.getN();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsResult;
+import com.amazonaws.services.rekognition.model.Label;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Stand-in for Rekognition returning a random subset of {@link Vocabulary#LABELS}.
+ */
+public class LocalRekognition extends AbstractAmazonRekognition {
+
+    private final ServiceBehaviour behaviour;
+
+    public LocalRekognition(ServiceBehaviour behaviour) {
+        this.behaviour = behaviour;
+    }
+
+    @Override
+    public DetectLabelsResult detectLabels(DetectLabelsRequest request) {
+        behaviour.call();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int maxLabels = nonNull(request.getMaxLabels()) ? request.getMaxLabels() : Vocabulary.LABELS.size();
+        final float minConfidence = nonNull(request.getMinConfidence()) ? request.getMinConfidence() : 55f;
+        final List<String> candidates = new ArrayList<>(Vocabulary.LABELS);
+        final List<Label> labels = new ArrayList<>();
+        for (int i = random.nextInt(maxLabels + 1); i > 0 && !candidates.isEmpty(); i--) {
+            labels.add(new Label()
+                    .withName(candidates.remove(random.nextInt(candidates.size())))
+                    .withConfidence(minConfidence + random.nextFloat() * (100f - minConfidence)));
+        }
+        return new DetectLabelsResult().withLabels(labels);
+    }
+
+}
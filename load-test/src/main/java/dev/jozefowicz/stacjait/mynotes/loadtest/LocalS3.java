@@ -0,0 +1,71 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory stand-in for S3 keeping only the sizes of uploaded objects.
+ */
+public class LocalS3 extends AbstractAmazonS3 {
+
+    private static final String ENDPOINT = "http://localhost/";
+
+    private final ServiceBehaviour behaviour;
+    private final Map<String, Long> objects = new ConcurrentHashMap<>();
+
+    public LocalS3(ServiceBehaviour behaviour) {
+        this.behaviour = behaviour;
+    }
+
+    /**
+     * Pre-signing is computed locally by the SDK, so no latency is injected here.
+     */
+    @Override
+    public URL generatePresignedUrl(GeneratePresignedUrlRequest request) {
+        try {
+            return new URL(ENDPOINT + request.getBucketName() + "/" + request.getKey() + "?X-Amz-Expires=900");
+        } catch (MalformedURLException e) {
+            throw new SdkClientException("Unable to generate pre-signed url", e);
+        }
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest request) {
+        behaviour.call();
+        objects.remove(request.getBucketName() + "/" + request.getKey());
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        deleteObject(new DeleteObjectRequest(bucketName, key));
+    }
+
+    /**
+     * Upload performed by a client with a pre-signed url.
+     *
+     * @return key of the uploaded object
+     */
+    public String upload(String presignedUrl, long size) {
+        behaviour.call();
+        final String bucketAndKey;
+        try {
+            bucketAndKey = new URL(presignedUrl).getPath().substring(1);
+        } catch (MalformedURLException e) {
+            throw new SdkClientException("Invalid pre-signed url " + presignedUrl, e);
+        }
+        objects.put(bucketAndKey, size);
+        return bucketAndKey.substring(bucketAndKey.indexOf('/') + 1);
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+}
@@ -0,0 +1,169 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.amazonaws.services.s3.event.S3EventNotification;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.jozefowicz.stacjait.mynotes.createnote.CreateNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.deletenote.DeleteNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.fileupload.FileUploadHandler;
+import dev.jozefowicz.stacjait.mynotes.listnotes.ListNotesHandler;
+import dev.jozefowicz.stacjait.mynotes.notestatistics.NoteStatisticsHandler;
+import dev.jozefowicz.stacjait.mynotes.processfile.ProcessFileHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Invokes the handlers the way API Gateway and S3 notifications do and keeps {@link UserState} in sync with
+ * the responses, reconciling with the note returned on 409 like a real client would.
+ *
+ * @see #upload(UserState, String, long, LoadTestContext)
+ */
+public class NotesClient {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final CreateNoteHandler createNoteHandler;
+    private final ListNotesHandler listNotesHandler;
+    private final DeleteNoteHandler deleteNoteHandler;
+    private final FileUploadHandler fileUploadHandler;
+    private final ProcessFileHandler processFileHandler;
+    private final NoteStatisticsHandler noteStatisticsHandler;
+    private final LocalS3 localS3;
+    private final String bucketName;
+
+    public NotesClient(CreateNoteHandler createNoteHandler, ListNotesHandler listNotesHandler, DeleteNoteHandler deleteNoteHandler,
+                       FileUploadHandler fileUploadHandler, ProcessFileHandler processFileHandler,
+                       NoteStatisticsHandler noteStatisticsHandler, LocalS3 localS3, String bucketName) {
+        this.createNoteHandler = createNoteHandler;
+        this.listNotesHandler = listNotesHandler;
+        this.deleteNoteHandler = deleteNoteHandler;
+        this.fileUploadHandler = fileUploadHandler;
+        this.processFileHandler = processFileHandler;
+        this.noteStatisticsHandler = noteStatisticsHandler;
+        this.localS3 = localS3;
+        this.bucketName = bucketName;
+    }
+
+    public int create(UserState user, String title, String text, LoadTestContext context) {
+        final ObjectNode body = objectMapper.createObjectNode()
+                .put("title", title)
+                .put("text", text);
+        final APIGatewayProxyResponseEvent response = createNoteHandler.handleRequest(request("POST", user, null, body), context);
+        if (response.getStatusCode() == 200) {
+            remember(user, response);
+        }
+        return response.getStatusCode();
+    }
+
+    /**
+     * @param title new title, {@code null} to leave it unchanged
+     * @param text  new text, {@code null} to leave it unchanged
+     */
+    public int update(UserState user, String noteId, String title, String text, LoadTestContext context) {
+        final ObjectNode body = objectMapper.createObjectNode()
+                .put("version", user.versionOf(noteId));
+        if (nonNull(title)) {
+            body.put("title", title);
+        }
+        if (nonNull(text)) {
+            body.put("text", text);
+        }
+        final APIGatewayProxyResponseEvent response = createNoteHandler.handleRequest(request("PUT", user, noteId, body), context);
+        if (response.getStatusCode() == 200 || response.getStatusCode() == 409) {
+            remember(user, response);
+        } else if (response.getStatusCode() == 404) {
+            user.forget(noteId);
+        }
+        return response.getStatusCode();
+    }
+
+    public int list(UserState user, LoadTestContext context) {
+        return listNotesHandler.handleRequest(request("GET", user, null, null), context).getStatusCode();
+    }
+
+    public int delete(UserState user, String noteId, LoadTestContext context) {
+        final APIGatewayProxyResponseEvent response = deleteNoteHandler.handleRequest(request("DELETE", user, noteId, null), context);
+        if (response.getStatusCode() == 200) {
+            user.forget(noteId);
+        }
+        return response.getStatusCode();
+    }
+
+    /**
+     * Requests a pre-signed url, uploads the file and delivers the resulting S3 notification to {@link ProcessFileHandler},
+     * which runs synchronously here instead of asynchronously after the upload.
+     */
+    public int upload(UserState user, String fileName, long size, LoadTestContext context) {
+        final ObjectNode body = objectMapper.createObjectNode().put("name", fileName);
+        final APIGatewayProxyResponseEvent response = fileUploadHandler.handleRequest(request("POST", user, null, body), context);
+        if (response.getStatusCode() != 200) {
+            return response.getStatusCode();
+        }
+        final String key = localS3.upload(read(response).get("link").asText(), size);
+
+        final int exceptions = context.getExceptions();
+        processFileHandler.handleRequest(s3Event(key, size), context);
+        if (context.getExceptions() != exceptions) {
+            return 500;
+        }
+        user.remember(key.split("/")[1], 1);
+        return 200;
+    }
+
+    public int statistics(UserState user, LoadTestContext context) {
+        return noteStatisticsHandler.handleRequest(request("GET", user, null, null), context).getStatusCode();
+    }
+
+    private void remember(UserState user, APIGatewayProxyResponseEvent response) {
+        final JsonNode note = read(response);
+        user.remember(note.get("noteId").asText(), note.get("version").asLong());
+    }
+
+    private JsonNode read(APIGatewayProxyResponseEvent response) {
+        try {
+            return objectMapper.readTree(response.getBody());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private APIGatewayProxyRequestEvent request(String httpMethod, UserState user, String noteId, JsonNode body) {
+        final Map<String, Object> authorizer = new HashMap<>();
+        authorizer.put("claims", Collections.singletonMap("cognito:username", user.getUserId()));
+        final APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setAuthorizer(authorizer);
+        return new APIGatewayProxyRequestEvent()
+                .withHttpMethod(httpMethod)
+                .withRequestContext(requestContext)
+                .withPathParameters(isNull(noteId) ? null : Collections.singletonMap("id", noteId))
+                .withBody(isNull(body) ? null : body.toString());
+    }
+
+    private S3EventNotification s3Event(String key, long size) {
+        final String encodedKey;
+        try {
+            encodedKey = URLEncoder.encode(key, "UTF-8").replace("%2F", "/");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final S3EventNotification.S3Entity s3 = new S3EventNotification.S3Entity(
+                null,
+                new S3EventNotification.S3BucketEntity(bucketName, null, "arn:aws:s3:::" + bucketName),
+                new S3EventNotification.S3ObjectEntity(encodedKey, size, null, null, null),
+                "1.0");
+        return new S3EventNotification(Collections.singletonList(new S3EventNotification.S3EventNotificationRecord(
+                "eu-west-2", "ObjectCreated:Put", "aws:s3", null, "2.1", null, null, s3, null, null)));
+    }
+
+}
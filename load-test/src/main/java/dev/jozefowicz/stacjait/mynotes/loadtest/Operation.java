@@ -0,0 +1,9 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+public enum Operation {
+    CREATE, UPDATE, LIST, DELETE, UPLOAD, STATISTICS;
+
+    public String displayName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,56 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in microseconds), outcomes and allocations of one operation. Workers record concurrently,
+ * the reporting thread periodically moves recorded latencies into the cumulative histogram.
+ */
+public class OperationMetrics {
+
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+    private final LongAdder allocatedBytes = new LongAdder();
+    private Histogram interval;
+
+    public OperationMetrics() {
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    public void record(long latencyNanos, int statusCode, long allocated) {
+        recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        outcomes.get(Outcome.of(statusCode)).increment();
+        allocatedBytes.add(allocated);
+    }
+
+    /**
+     * @return latencies recorded since the previous call, also added to {@link #getTotal()}; only for the reporting thread
+     */
+    public Histogram takeInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return interval;
+    }
+
+    public Histogram getTotal() {
+        return total;
+    }
+
+    public long getCount(Outcome outcome) {
+        return outcomes.get(outcome).sum();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+}
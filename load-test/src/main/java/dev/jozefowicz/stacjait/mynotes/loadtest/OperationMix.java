@@ -0,0 +1,68 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Relative weights of operations, parsed from {@code create:20,update:15,list:35,...}.
+ */
+public class OperationMix {
+
+    private final Map<Operation, Integer> weights;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    private OperationMix(Map<Operation, Integer> weights) {
+        this.weights = weights;
+        this.operations = weights.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += weights.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static OperationMix parse(String specification) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : specification.split(",")) {
+            final String[] operationWeight = entry.split(":");
+            try {
+                final int weight = Integer.parseInt(operationWeight[1].trim());
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Negative weight in operation mix " + specification);
+                }
+                if (weight > 0) {
+                    weights.put(Operation.valueOf(operationWeight[0].trim().toUpperCase()), weight);
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid operation mix " + specification, e);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Operation mix " + specification + " has no operations");
+        }
+        return new OperationMix(weights);
+    }
+
+    public Operation next(Random random) {
+        final int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public String toString() {
+        return weights.entrySet()
+                .stream()
+                .map(weight -> weight.getKey().displayName() + ":" + weight.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+}
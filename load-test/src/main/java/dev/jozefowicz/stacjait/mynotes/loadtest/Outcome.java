@@ -0,0 +1,16 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+public enum Outcome {
+    OK, CONFLICT, NOT_FOUND, ERROR;
+
+    public static Outcome of(int statusCode) {
+        if (statusCode >= 200 && statusCode < 300) {
+            return OK;
+        } else if (statusCode == 409) {
+            return CONFLICT;
+        } else if (statusCode == 404) {
+            return NOT_FOUND;
+        }
+        return ERROR;
+    }
+}
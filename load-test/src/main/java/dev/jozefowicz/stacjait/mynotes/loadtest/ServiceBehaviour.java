@@ -0,0 +1,98 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import com.amazonaws.AmazonServiceException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency and throttling injected into every call of a local service stand-in.
+ * Throttled attempts are retried with exponential backoff and full jitter the way the SDK default retry policy does,
+ * so throttling shows up as added latency first and as a failed request only once retries are exhausted.
+ */
+public class ServiceBehaviour {
+
+    private static final long MAX_BACKOFF_MILLIS = 20_000;
+
+    private final String serviceName;
+    private final String throttlingErrorCode;
+    private final long minLatencyMicros;
+    private final long maxLatencyMicros;
+    private final double throttleRate;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder throttledAttempts = new LongAdder();
+    private final LongAdder throttledCalls = new LongAdder();
+
+    public ServiceBehaviour(String serviceName, String throttlingErrorCode, long minLatencyMicros, long maxLatencyMicros,
+                            double throttleRate, int maxRetries, long baseBackoffMillis) {
+        if (minLatencyMicros < 0 || maxLatencyMicros < minLatencyMicros) {
+            throw new IllegalArgumentException("Invalid latency range for " + serviceName);
+        }
+        if (throttleRate < 0 || throttleRate >= 1) {
+            throw new IllegalArgumentException("Throttle rate for " + serviceName + " has to be in [0, 1)");
+        }
+        this.serviceName = serviceName;
+        this.throttlingErrorCode = throttlingErrorCode;
+        this.minLatencyMicros = minLatencyMicros;
+        this.maxLatencyMicros = maxLatencyMicros;
+        this.throttleRate = throttleRate;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /**
+     * Blocks the calling thread for the simulated duration of one service call.
+     *
+     * @throws AmazonServiceException when every attempt has been throttled
+     */
+    public void call() {
+        calls.increment();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; ; attempt++) {
+            pause(TimeUnit.MICROSECONDS.toNanos(minLatencyMicros == maxLatencyMicros ? minLatencyMicros : random.nextLong(minLatencyMicros, maxLatencyMicros + 1)));
+            if (throttleRate == 0 || random.nextDouble() >= throttleRate) {
+                return;
+            }
+            throttledAttempts.increment();
+            if (attempt == maxRetries) {
+                throttledCalls.increment();
+                AmazonServiceException exception = new AmazonServiceException("Rate exceeded");
+                exception.setServiceName(serviceName);
+                exception.setErrorCode(throttlingErrorCode);
+                exception.setStatusCode(400);
+                throw exception;
+            }
+            final long backoffCap = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 30));
+            pause(TimeUnit.MILLISECONDS.toNanos(random.nextLong(backoffCap + 1)));
+        }
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getThrottledAttempts() {
+        return throttledAttempts.sum();
+    }
+
+    public long getThrottledCalls() {
+        return throttledCalls.sum();
+    }
+
+    private static void pause(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+}
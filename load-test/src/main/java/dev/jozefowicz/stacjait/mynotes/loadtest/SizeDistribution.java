@@ -0,0 +1,69 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import java.util.Random;
+
+/**
+ * Distribution of note text or file sizes in bytes, parsed from one of:
+ * <ul>
+ *     <li>{@code fixed:SIZE}</li>
+ *     <li>{@code uniform:MIN:MAX}</li>
+ *     <li>{@code lognormal:MEDIAN:SIGMA} - long tail of a few very large notes, typical for user content</li>
+ * </ul>
+ */
+public abstract class SizeDistribution {
+
+    public abstract long sample(Random random);
+
+    public static SizeDistribution parse(String specification) {
+        final String[] parts = specification.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    return uniform(Long.parseLong(parts[1]), Long.parseLong(parts[1]), specification);
+                case "uniform":
+                    return uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]), specification);
+                case "lognormal":
+                    return lognormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), specification);
+                default:
+                    throw new IllegalArgumentException("Unknown size distribution " + specification);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size distribution " + specification, e);
+        }
+    }
+
+    private static SizeDistribution uniform(long min, long max, String specification) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid size distribution " + specification);
+        }
+        return new SizeDistribution() {
+            @Override
+            public long sample(Random random) {
+                return min + (long) (random.nextDouble() * (max - min + 1));
+            }
+
+            @Override
+            public String toString() {
+                return specification;
+            }
+        };
+    }
+
+    private static SizeDistribution lognormal(double median, double sigma, String specification) {
+        if (median < 1 || sigma < 0) {
+            throw new IllegalArgumentException("Invalid size distribution " + specification);
+        }
+        return new SizeDistribution() {
+            @Override
+            public long sample(Random random) {
+                return Math.max(1, Math.round(median * Math.exp(sigma * random.nextGaussian())));
+            }
+
+            @Override
+            public String toString() {
+                return specification;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,58 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Notes of a single user as last seen by the simulated clients of that user. Several workers may act on behalf
+ * of the same user at once, like devices of one person editing concurrently, so versions held here can be stale.
+ */
+public class UserState {
+
+    private final String userId;
+    private final List<String> noteIds = new ArrayList<>();
+    private final Map<String, Long> versions = new HashMap<>();
+
+    public UserState(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public synchronized void remember(String noteId, long version) {
+        if (isNull(versions.put(noteId, version))) {
+            noteIds.add(noteId);
+        }
+    }
+
+    public synchronized void forget(String noteId) {
+        if (nonNull(versions.remove(noteId))) {
+            noteIds.remove(noteId);
+        }
+    }
+
+    /**
+     * @return id of a random known note, {@code null} if the user has none
+     */
+    public synchronized String anyNote(Random random) {
+        return noteIds.isEmpty() ? null : noteIds.get(random.nextInt(noteIds.size()));
+    }
+
+    public synchronized long versionOf(String noteId) {
+        final Long version = versions.get(noteId);
+        return isNull(version) ? 0 : version;
+    }
+
+    public synchronized int noteCount() {
+        return noteIds.size();
+    }
+
+}
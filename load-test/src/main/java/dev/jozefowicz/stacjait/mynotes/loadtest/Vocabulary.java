@@ -0,0 +1,45 @@
+package dev.jozefowicz.stacjait.mynotes.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Words used to generate note texts. Capitalized {@link #LABELS} become entities in {@link LocalComprehend},
+ * so generated notes end up with a realistic, skewed label distribution.
+ */
+public final class Vocabulary {
+
+    public static final List<String> LABELS = Collections.unmodifiableList(Arrays.asList(
+            "Dog", "Cat", "Beach", "London", "Warsaw", "Mountain", "Car", "Bicycle", "Coffee", "Pizza",
+            "Sunset", "Forest", "Birthday", "Invoice", "Passport", "Receipt", "Concert", "Garden", "Office", "Train"));
+
+    private static final List<String> WORDS = Collections.unmodifiableList(Arrays.asList(
+            "the", "a", "remember", "to", "buy", "call", "meeting", "with", "about", "tomorrow", "next", "week",
+            "and", "of", "for", "trip", "photos", "list", "idea", "check", "send", "notes", "from", "after",
+            "before", "project", "weekend", "plan", "book", "pay", "bill", "ticket", "new", "old", "our"));
+
+    private Vocabulary() {
+    }
+
+    /**
+     * @return text of roughly {@code bytes} ASCII characters in which about every tenth word is a label,
+     * earlier labels being more likely than later ones
+     */
+    public static String text(long bytes, Random random) {
+        final StringBuilder text = new StringBuilder((int) bytes + 16);
+        while (text.length() < bytes) {
+            if (random.nextInt(10) == 0) {
+                // squaring skews the distribution towards the head of the list
+                final double position = random.nextDouble();
+                text.append(LABELS.get((int) (position * position * LABELS.size())));
+            } else {
+                text.append(WORDS.get(random.nextInt(WORDS.size())));
+            }
+            text.append(' ');
+        }
+        return text.toString();
+    }
+
+}
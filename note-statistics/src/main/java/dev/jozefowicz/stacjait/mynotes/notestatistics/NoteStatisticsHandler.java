@@ -0,0 +1,86 @@
+package dev.jozefowicz.stacjait.mynotes.notestatistics;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.NoteStatistics;
+import dev.jozefowicz.stacjait.mynotes.common.StatisticsRebuild;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
+import static java.util.Objects.isNull;
+
+public class NoteStatisticsHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final String TABLE_NAME = System.getenv("TABLE_NAME");
+    private static final String STATISTICS_TABLE_NAME = System.getenv("STATISTICS_TABLE_NAME");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Table statisticsTable;
+    private final StatisticsRebuild statisticsRebuild;
+
+    public NoteStatisticsHandler() {
+        this(AmazonDynamoDBClient.builder().build(), TABLE_NAME, STATISTICS_TABLE_NAME);
+    }
+
+    public NoteStatisticsHandler(AmazonDynamoDB amazonDynamoDB, String tableName, String statisticsTableName) {
+        this.statisticsTable = new DynamoDB(amazonDynamoDB).getTable(statisticsTableName);
+        this.statisticsRebuild = new StatisticsRebuild(amazonDynamoDB, tableName, statisticsTableName);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
+
+        try {
+            if (!request.getHttpMethod().equalsIgnoreCase("get")) {
+                return response(405, null);
+            } else if (isNull(request.getRequestContext().getAuthorizer()) || request.getRequestContext().getAuthorizer().isEmpty()) {
+                context.getLogger().log("Authorizer not configured");
+                return response(401, null);
+            }
+
+            Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
+            final String userId = claims.get("cognito:username");
+
+            List<Item> items = statistics(userId);
+            if (!StatisticsRebuild.initialized(items)) {
+                // notes stored before statistics were maintained are not counted yet, never respond with such counts
+                statisticsRebuild.initialize(userId);
+                items = statistics(userId);
+            }
+            return response(200, objectMapper.writeValueAsString(NoteStatistics.fromItems(items)));
+        } catch (Exception e) {
+            context.getLogger().log("Exception while processing request");
+            e.printStackTrace();
+            return response(500, null);
+        }
+    }
+
+    /**
+     * @return totals and the label counts, all in the partition of the user
+     */
+    private List<Item> statistics(String userId) {
+        final QuerySpec querySpec = new QuerySpec()
+                .withKeyConditionExpression("userId = :userId")
+                .withValueMap(new ValueMap().withString(":userId", userId));
+        final List<Item> items = new ArrayList<>();
+        statisticsTable.query(querySpec).forEach(items::add);
+        return items;
+    }
+
+}
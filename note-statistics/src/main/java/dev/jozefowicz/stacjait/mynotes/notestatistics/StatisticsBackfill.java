@@ -0,0 +1,48 @@
+package dev.jozefowicz.stacjait.mynotes.notestatistics;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import dev.jozefowicz.stacjait.mynotes.common.StatisticsRebuild;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * One-off rebuild of the statistics of every user who has notes, run once after the statistics table is created:
+ * <pre>
+ * java -cp note-statistics-0.0.1.jar dev.jozefowicz.stacjait.mynotes.notestatistics.StatisticsBackfill NOTES_TABLE STATISTICS_TABLE
+ * </pre>
+ * Users missed by the backfill are rebuilt by {@link NoteStatisticsHandler} on their first request.
+ */
+public class StatisticsBackfill {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: StatisticsBackfill <notes table> <statistics table>");
+            System.exit(1);
+        }
+        final AmazonDynamoDB amazonDynamoDB = AmazonDynamoDBClient.builder().build();
+        final Table myNotesTable = new DynamoDB(amazonDynamoDB).getTable(args[0]);
+        final StatisticsRebuild statisticsRebuild = new StatisticsRebuild(amazonDynamoDB, args[0], args[1]);
+
+        final Set<String> userIds = new TreeSet<>();
+        for (Item item : myNotesTable.scan(new ScanSpec().withProjectionExpression("userId"))) {
+            userIds.add(item.getString("userId"));
+        }
+        System.out.println("Rebuilding statistics of " + userIds.size() + " users");
+        int rebuilt = 0;
+        for (String userId : userIds) {
+            statisticsRebuild.rebuild(userId);
+            if (++rebuilt % 100 == 0) {
+                System.out.println("Rebuilt " + rebuilt + " of " + userIds.size());
+            }
+        }
+        System.out.println("Rebuilt statistics of " + rebuilt + " users");
+    }
+
+}
@@ -1,9 +1,10 @@
 package dev.jozefowicz.stacjait.mynotes.processfile;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.rekognition.AmazonRekognition;
@@ -16,10 +17,11 @@ import com.amazonaws.services.rekognition.model.S3Object;
 import com.amazonaws.services.s3.event.S3EventNotification;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.NoteTransactions;
 import dev.jozefowicz.stacjait.mynotes.common.NoteType;
 import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.StatisticsUpdate;
 
 import java.net.URLDecoder;
 import java.util.List;
@@ -28,13 +30,23 @@ import java.util.stream.Collectors;
 public class ProcessFileHandler implements RequestHandler<S3EventNotification, Void> {
 
     private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String STATISTICS_TABLE_NAME = System.getenv("STATISTICS_TABLE_NAME");
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDB dynamoDB = new DynamoDB(AmazonDynamoDBClient.builder().build());
-    private final Table myNotesTable = dynamoDB.getTable(TABLE_NAME);
-    private final AmazonRekognition rekognition = AmazonRekognitionClient.builder().build();
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final String tableName;
+    private final String statisticsTableName;
+    private final AmazonRekognition rekognition;
 
     public ProcessFileHandler() {
+        this(AmazonDynamoDBClient.builder().build(), AmazonRekognitionClient.builder().build(), TABLE_NAME, STATISTICS_TABLE_NAME);
+    }
+
+    public ProcessFileHandler(AmazonDynamoDB amazonDynamoDB, AmazonRekognition rekognition, String tableName, String statisticsTableName) {
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.tableName = tableName;
+        this.statisticsTableName = statisticsTableName;
+        this.rekognition = rekognition;
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
@@ -48,7 +60,17 @@ public class ProcessFileHandler implements RequestHandler<S3EventNotification, V
                 final NoteType type = idFileName[2].matches("(.*/)*.+\\.(png|jpg|gif|bmp|jpeg|PNG|JPG|GIF|BMP)$") ? NoteType.IMAGE : NoteType.FILE;
                 final List<String> labels = analyze(key, record.getS3().getBucket().getName());
                 final PersistedNote note = PersistedNote.file(idFileName[0], idFileName[1], idFileName[2], key, record.getS3().getObject().getSize(), type, labels);
-                persist(note);
+                try {
+                    NoteTransactions.write(amazonDynamoDB,
+                            NoteTransactions.create(tableName, ItemUtils.toAttributeValues(Item.fromJSON(this.objectMapper.writeValueAsString(note)))),
+                            StatisticsUpdate.between(null, note), statisticsTableName, note.getUserId());
+                } catch (TransactionCanceledException e) {
+                    if (!NoteTransactions.noteConditionFailed(e)) {
+                        throw e;
+                    }
+                    // redelivered event, the note and its statistics have been written together already
+                    context.getLogger().log("Note " + note.getNoteId() + " already exists, skipping");
+                }
             }
             return null;
         } catch (Exception e) {
@@ -58,10 +80,6 @@ public class ProcessFileHandler implements RequestHandler<S3EventNotification, V
         }
     }
 
-    private void persist(PersistedNote note) throws JsonProcessingException {
-        myNotesTable.putItem(Item.fromJSON(this.objectMapper.writeValueAsString(note)));
-    }
-
     private List<String> analyze(String s3Location, String bucketName) {
 
         final DetectLabelsRequest detectLabelsRequest = new DetectLabelsRequest();